@@ -0,0 +1,320 @@
+package com.example.wiehlem.sunshine;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server standing in for the forecast/daily endpoint, for tests and benchmarks
+ * that must not depend on OpenWeatherMap.
+ * <p/>
+ * By default it generates a realistic forecast for whatever city is asked for in the "q"
+ * parameter, with as many days as "cnt" asks for (or {@link #setDays(int)}). A fixed body can
+ * be served instead. Every response carries an ETag and a Last-Modified header, conditional
+ * requests matching the current ETag are answered with 304.
+ * <p/>
+ * Latency, bandwidth and the share of requests failing with a 500 are configurable, and
+ * the next few requests can be made to fail deterministically.
+ */
+public class StubForecastServer {
+    private static final String LOG_TAG = StubForecastServer.class.getSimpleName();
+
+    private static final String LAST_MODIFIED = "Fri, 01 Aug 2014 12:00:00 GMT";
+    private static final String[][] CONDITIONS = {
+            {"800", "Clear"}, {"801", "Clouds"}, {"803", "Clouds"}, {"500", "Rain"},
+            {"501", "Rain"}, {"300", "Drizzle"}, {"600", "Snow"}, {"701", "Mist"},
+            {"211", "Thunderstorm"}
+    };
+
+    private final ServerSocket mServerSocket;
+    private final Thread mAcceptThread;
+    private final Random mRandom = new Random(42);
+
+    private volatile String mBody;
+    private volatile int mVersion;
+
+    private volatile long mLatencyMillis;
+    private volatile int mBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile int mDays;
+    private final AtomicInteger mFailNext = new AtomicInteger();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mFullResponses = new AtomicInteger();
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+    private final AtomicInteger mErrorResponses = new AtomicInteger();
+
+    /**
+     * A server generating a forecast for every requested city.
+     */
+    public StubForecastServer() throws IOException {
+        this(null);
+    }
+
+    /**
+     * A server answering every request with the given body, or generated forecasts if null.
+     */
+    public StubForecastServer(String body) throws IOException {
+        mBody = body;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        final Socket socket = mServerSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                handle(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // Closed by shutdown().
+                    }
+                }
+            }
+        }, LOG_TAG);
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return the base URL to hand to {@link WeatherFetcher}
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    /**
+     * Serve a new payload, which also changes the ETag. Null switches back to generated
+     * forecasts.
+     */
+    public void setBody(String body) {
+        mBody = body;
+        mVersion++;
+    }
+
+    /**
+     * Delay before the response headers are sent.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Throttle the response body to roughly this many bytes per second, 0 for unlimited.
+     */
+    public void setBandwidth(int bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Share of requests, between 0 and 1, answered with a 500.
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Answer the next requests with a 500, before the error rate is looked at.
+     */
+    public void failNextRequests(int count) {
+        mFailNext.set(count);
+    }
+
+    /**
+     * Number of days in generated forecasts regardless of "cnt", 0 to follow "cnt".
+     * Controls the payload size.
+     */
+    public void setDays(int days) {
+        mDays = days;
+    }
+
+    public int getFullResponseCount() {
+        return mFullResponses.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedResponses.get();
+    }
+
+    public int getErrorCount() {
+        return mErrorResponses.get();
+    }
+
+    /**
+     * @return the number of requests received, including those still waiting out the latency
+     * and those the client gave up on
+     */
+    public int getRequestCount() {
+        return mRequests.get();
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String ifNoneMatch = null;
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+            }
+
+            mRequests.incrementAndGet();
+
+            // "GET /data/2.5/forecast/daily?q=...&cnt=14 HTTP/1.1"
+            String[] parts = requestLine.split(" ");
+            Uri request = Uri.parse(parts.length > 1 ? parts[1] : "/");
+            String city = request.getQueryParameter("q");
+            if (city == null) {
+                city = "Leipzig";
+            }
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            boolean fail = mFailNext.getAndDecrement() > 0;
+            if (!fail) {
+                synchronized (mRandom) {
+                    fail = mRandom.nextDouble() < mErrorRate;
+                }
+            }
+            if (fail) {
+                mErrorResponses.incrementAndGet();
+                out.write(("HTTP/1.1 500 Internal Server Error\r\n" +
+                        "Content-Length: 0\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                out.flush();
+                return;
+            }
+
+            String eTag = "\"" + Integer.toHexString(city.hashCode()) + "-" + mVersion + "\"";
+            if (eTag.equals(ifNoneMatch)) {
+                mNotModifiedResponses.incrementAndGet();
+                out.write(("HTTP/1.1 304 Not Modified\r\n" +
+                        "ETag: " + eTag + "\r\n" +
+                        "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                out.flush();
+                return;
+            }
+
+            mFullResponses.incrementAndGet();
+            String body = mBody;
+            if (body == null) {
+                int days = mDays;
+                if (days <= 0) {
+                    String cnt = request.getQueryParameter("cnt");
+                    days = cnt != null ? Integer.parseInt(cnt) : 7;
+                }
+                body = generateForecast(city, days);
+            }
+            byte[] bytes = body.getBytes("UTF-8");
+            out.write(("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: application/json; charset=utf-8\r\n" +
+                    "Content-Length: " + bytes.length + "\r\n" +
+                    "ETag: " + eTag + "\r\n" +
+                    "Last-Modified: " + LAST_MODIFIED + "\r\n" +
+                    "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            writeThrottled(out, bytes);
+            out.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error serving request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void writeThrottled(OutputStream out, byte[] bytes)
+            throws IOException, InterruptedException {
+        int bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(bytes);
+            return;
+        }
+        // Send a tenth of a second's worth at a time.
+        int chunk = Math.max(1, bytesPerSecond / 10);
+        for (int offset = 0; offset < bytes.length; offset += chunk) {
+            out.write(bytes, offset, Math.min(chunk, bytes.length - offset));
+            out.flush();
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * A forecast in the forecast/daily format. The values are random but stable per city.
+     */
+    static String generateForecast(String city, int days) {
+        Random random = new Random(city.hashCode());
+        double lat = random.nextDouble() * 140 - 70;
+        double lon = random.nextDouble() * 360 - 180;
+        // Noon UTC today, like the real service.
+        long dt = System.currentTimeMillis() / 1000 / 86400 * 86400 + 43200;
+
+        StringBuilder json = new StringBuilder(200 + days * 330);
+        json.append("{\"city\":{\"id\":").append(Math.abs(city.hashCode()))
+                .append(",\"name\":\"").append(city.replace("\"", "\\\""))
+                .append("\",\"coord\":{\"lon\":").append(format(lon))
+                .append(",\"lat\":").append(format(lat))
+                .append("},\"country\":\"DE\",\"population\":0},\"cod\":\"200\",\"message\":0.01,")
+                .append("\"cnt\":").append(days).append(",\"list\":[");
+        double base = random.nextDouble() * 30 - 5;
+        for (int i = 0; i < days; i++) {
+            double min = base + random.nextDouble() * 6 - 3;
+            double max = min + 3 + random.nextDouble() * 9;
+            String[] condition = CONDITIONS[random.nextInt(CONDITIONS.length)];
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(format(max - 1))
+                    .append(",\"min\":").append(format(min))
+                    .append(",\"max\":").append(format(max))
+                    .append(",\"night\":").append(format(min + 1))
+                    .append(",\"eve\":").append(format(max - 2))
+                    .append(",\"morn\":").append(format(min))
+                    .append("},\"pressure\":").append(format(990 + random.nextDouble() * 40))
+                    .append(",\"humidity\":").append(40 + random.nextInt(60))
+                    .append(",\"weather\":[{\"id\":").append(condition[0])
+                    .append(",\"main\":\"").append(condition[1])
+                    .append("\",\"description\":\"").append(condition[1].toLowerCase(Locale.US))
+                    .append("\",\"icon\":\"01d\"}],\"speed\":").append(format(random.nextDouble() * 12))
+                    .append(",\"deg\":").append(random.nextInt(360))
+                    .append(",\"clouds\":").append(random.nextInt(100))
+                    .append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.wiehlem.sunshine;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.net.SocketTimeoutException;
+
+/**
+ * Timeouts, retries and the circuit breaker, with faults injected by
+ * {@link StubForecastServer}.
+ */
+public class TestFetchResilience extends AndroidTestCase {
+
+    private StubForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        ForecastResponseCache.getInstance(mContext).remove("Leipzig");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private WeatherFetcher createFetcher() {
+        WeatherFetcher fetcher = new WeatherFetcher(mContext, mServer.getUrl());
+        fetcher.setTimeouts(1000, 1000);
+        fetcher.setRetries(3, 50, 200);
+        fetcher.setCircuitBreaker(new CircuitBreaker(3, 500));
+        return fetcher;
+    }
+
+    public void testTransientErrorsAreRetried() {
+        mServer.failNextRequests(2);
+
+        WeatherFetcher.Result result = createFetcher().fetch("Leipzig");
+        assertEquals(WeatherFetcher.Result.STATUS_UPDATED, result.status);
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, mServer.getErrorCount());
+    }
+
+    public void testRetriesAreBounded() {
+        mServer.setErrorRate(1);
+
+        WeatherFetcher.Result result = createFetcher().fetch("Leipzig");
+        assertFalse(result.isSuccess());
+        assertTrue(result.error instanceof WeatherFetcher.HttpStatusException);
+        assertEquals(500, ((WeatherFetcher.HttpStatusException) result.error).statusCode);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testReadTimeout() {
+        mServer.setLatencyMillis(5000);
+        WeatherFetcher fetcher = createFetcher();
+        fetcher.setTimeouts(500, 300);
+        fetcher.setRetries(2, 10, 10);
+
+        WeatherFetcher.Result result = fetcher.fetch("Leipzig");
+        assertFalse(result.isSuccess());
+        assertTrue(result.error instanceof SocketTimeoutException);
+        // Both attempts timed out instead of waiting for the server's 5 seconds.
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, mServer.getFullResponseCount());
+    }
+
+    public void testCircuitBreakerFailsFast() {
+        mServer.setErrorRate(1);
+        WeatherFetcher fetcher = createFetcher();
+
+        // Three failed attempts open the breaker.
+        assertFalse(fetcher.fetch("Leipzig").isSuccess());
+        assertEquals(3, mServer.getRequestCount());
+
+        // Rejected without a request, and without retrying.
+        WeatherFetcher.Result result = fetcher.fetch("Leipzig");
+        assertTrue(result.error instanceof CircuitBreaker.OpenException);
+        assertEquals(3, mServer.getRequestCount());
+
+        // After the open period a single trial goes through and closes the breaker again.
+        mServer.setErrorRate(0);
+        SystemClock.sleep(600);
+        assertEquals(WeatherFetcher.Result.STATUS_UPDATED, fetcher.fetch("Leipzig").status);
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testHalfOpenFailureReopens() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 200);
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        SystemClock.sleep(250);
+        assertTrue(breaker.allowRequest());
+        // Only one trial at a time.
+        assertFalse(breaker.allowRequest());
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        SystemClock.sleep(250);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testSuccessOnlyClosesFromHalfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60 * 1000);
+        // A success in between resets the count of consecutive failures.
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+
+        // A slow request made before the breaker opened succeeds late.
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        breaker.recordSuccess();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testLostTrialIsGivenUp() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 200);
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        SystemClock.sleep(250);
+        // The trial never reports an outcome.
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        SystemClock.sleep(250);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.wiehlem.sunshine;
+
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * End-to-end fetch and ingest against {@link StubForecastServer}, no network needed.
+ */
+public class TestFetchThroughput extends AndroidTestCase {
+    public static final String LOG_TAG = TestFetchThroughput.class.getSimpleName();
+
+    private StubForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testFetchAndRevalidate() {
+        String city = "Stub City";
+        forgetValidators(city);
+        WeatherFetcher fetcher = new WeatherFetcher(mContext, mServer.getUrl());
+
+        WeatherFetcher.Result result = fetcher.fetch(city);
+        assertEquals(WeatherFetcher.Result.STATUS_UPDATED, result.status);
+        assertEquals(14, result.rowCount);
+        assertEquals(14, countWeatherRows(city));
+
+        result = fetcher.fetch(city);
+        assertEquals(WeatherFetcher.Result.STATUS_NOT_MODIFIED, result.status);
+        assertEquals(1, mServer.getFullResponseCount());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertEquals(14, countWeatherRows(city));
+    }
+
+    public void testRefetchAfterDeleteRestoresRows() {
+        String city = "Stub City";
+        forgetValidators(city);
+        WeatherFetcher fetcher = new WeatherFetcher(mContext, mServer.getUrl());
+        assertEquals(WeatherFetcher.Result.STATUS_UPDATED, fetcher.fetch(city).status);
+
+        deleteAllRecords();
+        assertEquals(0, countWeatherRows(city));
+
+        // The validators are still on disk, but must not be sent for a forecast that is gone.
+        WeatherFetcher.Result result = fetcher.fetch(city);
+        assertEquals(WeatherFetcher.Result.STATUS_UPDATED, result.status);
+        assertEquals(2, mServer.getFullResponseCount());
+        assertEquals(0, mServer.getNotModifiedCount());
+        assertEquals(14, countWeatherRows(city));
+    }
+
+    public void testFetchesFromOtherEndpointsDontJoin() throws Exception {
+        final String city = "Stub City";
+        forgetValidators(city);
+        mServer.setLatencyMillis(500);
+        StubForecastServer other = new StubForecastServer();
+        try {
+            Thread slow = new Thread() {
+                @Override
+                public void run() {
+                    new WeatherFetcher(mContext, mServer.getUrl()).fetch(city);
+                }
+            };
+            slow.start();
+            long deadline = SystemClock.elapsedRealtime() + 5000;
+            while (mServer.getRequestCount() == 0 && SystemClock.elapsedRealtime() < deadline) {
+                SystemClock.sleep(10);
+            }
+            assertEquals(1, mServer.getRequestCount());
+
+            // The same city is in flight, but from another server.
+            WeatherFetcher.Result result = new WeatherFetcher(mContext, other.getUrl()).fetch(city);
+            assertTrue(result.isSuccess());
+            assertEquals(1, other.getRequestCount());
+            slow.join();
+            assertEquals(1, mServer.getRequestCount());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    public void testServerErrorFailsFetch() {
+        String city = "Broken City";
+        forgetValidators(city);
+        mServer.setErrorRate(1);
+
+        WeatherFetcher fetcher = new WeatherFetcher(mContext, mServer.getUrl());
+        fetcher.setRetries(1, 0, 0);
+        WeatherFetcher.Result result = fetcher.fetch(city);
+        assertFalse(result.isSuccess());
+        assertEquals(0, countWeatherRows(city));
+    }
+
+    public void testThroughputAndTailLatency() {
+        mServer.setLatencyMillis(100);
+        mServer.setBandwidth(32 * 1024);
+        mServer.setErrorRate(0.1);
+
+        List<String> cities = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            String city = "City " + i;
+            forgetValidators(city);
+            cities.add(city);
+        }
+
+        WeatherFetchEngine engine =
+                new WeatherFetchEngine(new WeatherFetcher(mContext, mServer.getUrl()), 8);
+        WeatherFetchEngine.Report report = engine.fetchAll(cities);
+
+        long[] latencies = new long[report.results.size()];
+        int rows = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            WeatherFetcher.Result result = report.results.get(i);
+            latencies[i] = result.elapsedMillis;
+            rows += result.rowCount;
+            if (result.isSuccess()) {
+                assertEquals(14, countWeatherRows(result.locationSetting));
+            }
+        }
+        Arrays.sort(latencies);
+
+        double perSecond = cities.size() * 1000.0 / Math.max(1, report.elapsedMillis);
+        Log.d(LOG_TAG, String.format("%d locations, %d rows in %dms (%.1f locations/s), " +
+                        "p50 %dms, p95 %dms, p99 %dms, max %dms, %d failed",
+                cities.size(), rows, report.elapsedMillis, perSecond,
+                percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                latencies[latencies.length - 1], report.getFailureCount()));
+
+        // Failed requests are retried, a location only fails if all its attempts did.
+        assertTrue(report.getFailureCount() <= mServer.getErrorCount());
+    }
+
+    static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private void forgetValidators(String city) {
+        // A previous run may have left validators behind while the rows have been deleted.
+        ForecastResponseCache.getInstance(mContext).remove(city);
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.StringReader;
+
+/**
+ * Makes sure the streaming and the JSONObject tree parser produce the same rows.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    static final String FORECAST_JSON = "{\"city\":{\"id\":2879139,\"name\":\"Leipzig\"," +
+            "\"coord\":{\"lon\":12.37129,\"lat\":51.339619},\"country\":\"DE\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0139,\"cnt\":3,\"list\":[" +
+            "{\"dt\":1406894400,\"temp\":{\"day\":26.43,\"min\":15.54,\"max\":26.43,\"night\":15.54," +
+            "\"eve\":23.68,\"morn\":26.43},\"pressure\":1003.51,\"humidity\":69," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":1.86,\"deg\":266,\"clouds\":12,\"rain\":1}," +
+            "{\"dt\":1406980800,\"temp\":{\"day\":24.19,\"min\":14.2,\"max\":25.3,\"night\":16.02," +
+            "\"eve\":22.05,\"morn\":14.2},\"pressure\":1002.14,\"humidity\":72.5," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}," +
+            "{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d\"}]," +
+            "\"speed\":3.01,\"deg\":301.5,\"clouds\":0}," +
+            "{\"dt\":1407067200,\"temp\":{\"day\":21,\"min\":12,\"max\":22,\"night\":13," +
+            "\"eve\":20,\"morn\":12},\"pressure\":1010,\"humidity\":80," +
+            "\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}]," +
+            "\"speed\":0,\"deg\":0,\"clouds\":40}]}";
+
+    public void testStreamMatchesTree() throws Throwable {
+        ForecastJsonParser.Forecast tree = ForecastJsonParser.parseTree(FORECAST_JSON);
+        ForecastJsonParser.Forecast stream =
+                ForecastJsonParser.parseStream(new StringReader(FORECAST_JSON));
+
+        assertEquals(tree.cityName, stream.cityName);
+        assertEquals(tree.cityLatitude, stream.cityLatitude);
+        assertEquals(tree.cityLongitude, stream.cityLongitude);
+
+        assertEquals(3, tree.days.size());
+        assertEquals(tree.days.size(), stream.days.size());
+        for (int i = 0; i < tree.days.size(); i++) {
+            ContentValues expected = tree.days.get(i);
+            ContentValues actual = stream.days.get(i);
+            assertEquals("day " + i, expected, actual);
+        }
+    }
+
+    public void testStreamIgnoresFieldOrder() throws Throwable {
+        // The list may come before the city.
+        String reordered = "{\"list\":[{\"weather\":[{\"main\":\"Snow\",\"id\":600}]," +
+                "\"temp\":{\"min\":-3,\"max\":1},\"deg\":10,\"speed\":4.2,\"humidity\":90," +
+                "\"pressure\":990.5,\"dt\":1406894400}]," +
+                "\"city\":{\"coord\":{\"lat\":64.7488,\"lon\":-147.353},\"name\":\"North Pole\"}}";
+
+        ForecastJsonParser.Forecast tree = ForecastJsonParser.parseTree(reordered);
+        ForecastJsonParser.Forecast stream =
+                ForecastJsonParser.parseStream(new StringReader(reordered));
+
+        assertEquals("North Pole", stream.cityName);
+        assertEquals(tree.cityLatitude, stream.cityLatitude);
+        assertEquals(tree.cityLongitude, stream.cityLongitude);
+        assertEquals(tree.days, stream.days);
+    }
+
+    public void testBothRejectDaysMissingAField() throws Throwable {
+        String[] truncated = {
+                // No date.
+                "{\"temp\":{\"min\":-3,\"max\":1},\"pressure\":990.5,\"humidity\":90," +
+                        "\"weather\":[{\"id\":600,\"main\":\"Snow\"}],\"speed\":4.2,\"deg\":10}",
+                // No temperatures.
+                "{\"dt\":1406894400,\"pressure\":990.5,\"humidity\":90," +
+                        "\"weather\":[{\"id\":600,\"main\":\"Snow\"}],\"speed\":4.2,\"deg\":10}",
+                // No weather.
+                "{\"dt\":1406894400,\"temp\":{\"min\":-3,\"max\":1},\"pressure\":990.5," +
+                        "\"humidity\":90,\"speed\":4.2,\"deg\":10}",
+                // No pressure.
+                "{\"dt\":1406894400,\"temp\":{\"min\":-3,\"max\":1},\"humidity\":90," +
+                        "\"weather\":[{\"id\":600,\"main\":\"Snow\"}],\"speed\":4.2,\"deg\":10}"
+        };
+        for (String day : truncated) {
+            String json = "{\"city\":{\"name\":\"North Pole\"," +
+                    "\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},\"list\":[" + day + "]}";
+            try {
+                ForecastJsonParser.parseTree(json);
+                fail("Tree parser accepted " + day);
+            } catch (JSONException expected) {
+            }
+            try {
+                ForecastJsonParser.parseStream(new StringReader(json));
+                fail("Streaming parser accepted " + day);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.wiehlem.sunshine;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Runs conditional requests against {@link StubForecastServer}.
+ */
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private StubForecastServer mServer;
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubForecastServer(TestForecastJsonParser.FORECAST_JSON);
+        mCacheDir = new File(mContext.getCacheDir(), "test_forecast_responses");
+        deleteCacheDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteCacheDir();
+        super.tearDown();
+    }
+
+    public void testRevalidation() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDir, 32 * 1024);
+
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(cache, "Leipzig"));
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetch(cache, "Leipzig"));
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetch(cache, "Leipzig"));
+        assertEquals(3, mServer.getFullResponseCount() + mServer.getNotModifiedCount());
+        assertEquals(1, mServer.getFullResponseCount());
+
+        // A different location has no validators yet.
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(cache, "94043"));
+
+        // Once the forecast changes the full response is sent again.
+        mServer.setBody(TestForecastJsonParser.FORECAST_JSON + " ");
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(cache, "Leipzig"));
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, fetch(cache, "Leipzig"));
+
+        assertEquals(3, mServer.getFullResponseCount());
+        assertEquals(3, mServer.getNotModifiedCount());
+    }
+
+    public void testRemovedEntryFetchesFullResponse() throws Throwable {
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDir, 32 * 1024);
+
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(cache, "Leipzig"));
+        cache.remove("Leipzig");
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(cache, "Leipzig"));
+        assertEquals(0, mServer.getNotModifiedCount());
+    }
+
+    public void testSizeLimit() {
+        long maxSize = 1024;
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDir, maxSize);
+        for (int i = 0; i < 200; i++) {
+            cache.put("location " + i, "\"etag-" + i + "\"", "Fri, 01 Aug 2014 12:00:00 GMT");
+        }
+
+        long size = 0;
+        for (File file : mCacheDir.listFiles()) {
+            size += file.length();
+        }
+        assertTrue("cache size " + size, size <= maxSize);
+    }
+
+    /**
+     * Same request sequence as WeatherFetcher: conditional request, and on a full
+     * response read the body and store the validators.
+     */
+    private int fetch(ForecastResponseCache cache, String location) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mServer.getUrl() + "q=" + location).openConnection();
+        try {
+            cache.addValidators(connection, location);
+            connection.connect();
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK) {
+                InputStream in = connection.getInputStream();
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                    // drain
+                }
+                in.close();
+                cache.put(location, ForecastResponseCache.getETag(connection),
+                        ForecastResponseCache.getLastModified(connection));
+            }
+            return code;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void deleteCacheDir() {
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDir.delete();
+    }
+}
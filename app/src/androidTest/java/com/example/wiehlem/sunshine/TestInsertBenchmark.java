@@ -0,0 +1,125 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.wiehlem.sunshine.data.WeatherDbHelper;
+import com.example.wiehlem.sunshine.data.WeatherInserter;
+
+/**
+ * Rows per second of SQLiteDatabase.insert() against {@link WeatherInserter}, both inside a
+ * single transaction like WeatherProvider.bulkInsert.
+ */
+public class TestInsertBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestInsertBenchmark.class.getSimpleName();
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        clear();
+        mLocationId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestDb.createNorthPoleLocationValues());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clear();
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testInsertThroughput() {
+        for (int rows : new int[]{14, 1000, 100000}) {
+            ContentValues[] values = createRows(rows);
+
+            long start = SystemClock.elapsedRealtime();
+            assertEquals(rows, insertEach(values));
+            long before = SystemClock.elapsedRealtime() - start;
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            start = SystemClock.elapsedRealtime();
+            assertEquals(rows, insertCompiled(values));
+            long after = SystemClock.elapsedRealtime() - start;
+            assertEquals(rows, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            Log.d(LOG_TAG, String.format("%d rows: insert() %d rows/s, compiled %d rows/s",
+                    rows, rowsPerSecond(rows, before), rowsPerSecond(rows, after)));
+        }
+    }
+
+    public void testFallsBackForUnknownColumns() {
+        ContentValues values = createRows(1)[0];
+        values.put(WeatherEntry._ID, 4711);
+
+        WeatherInserter inserter = new WeatherInserter(mDb);
+        try {
+            assertEquals(4711, inserter.insert(values));
+        } finally {
+            inserter.close();
+        }
+    }
+
+    private int insertEach(ContentValues[] values) {
+        int count = 0;
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, value) > 0) {
+                    count++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return count;
+    }
+
+    private int insertCompiled(ContentValues[] values) {
+        int count = 0;
+        mDb.beginTransaction();
+        WeatherInserter inserter = new WeatherInserter(mDb);
+        try {
+            for (ContentValues value : values) {
+                if (inserter.insert(value) > 0) {
+                    count++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            mDb.endTransaction();
+        }
+        return count;
+    }
+
+    private ContentValues[] createRows(int rows) {
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = TestDb.createWeatherValues(mLocationId);
+            // A distinct date per row, so the unique constraint doesn't replace any.
+            values[i].put(WeatherEntry.COLUMN_DATE, 16282L + i);
+        }
+        return values;
+    }
+
+    private static long rowsPerSecond(int rows, long millis) {
+        return rows * 1000L / Math.max(1, millis);
+    }
+
+    private void clear() {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        mDb.delete(LocationEntry.TABLE_NAME, null, null);
+    }
+}
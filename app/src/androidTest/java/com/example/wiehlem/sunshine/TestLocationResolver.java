@@ -0,0 +1,136 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class TestLocationResolver extends AndroidTestCase {
+
+    private static final int CALLERS = 8;
+
+    private final List<LocationResolver> mResolvers = new ArrayList<LocationResolver>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (LocationResolver resolver : mResolvers) {
+            resolver.close();
+        }
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRepeatedResolveHitsCache() {
+        LocationResolver resolver = createResolver();
+        long id = resolver.resolve("04103", "Leipzig", 51.3, 12.4);
+        assertTrue(id > 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(id, resolver.resolve("04103", "Leipzig", 51.3, 12.4));
+        }
+        assertEquals(1, resolver.getProviderCalls());
+    }
+
+    public void testMissReturnsStoredRow() {
+        long first = createResolver().resolve("04103", "Leipzig", 51.3, 12.4);
+        // A second resolver has an empty cache and finds the row through the upsert.
+        LocationResolver other = createResolver();
+        assertEquals(first, other.resolve("04103", "Leipzig", 51.3, 12.4));
+        assertEquals(1, countLocations("04103"));
+    }
+
+    public void testConcurrentResolvesCreateOneRow() throws Throwable {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Set<Long> ids = new HashSet<Long>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < CALLERS; i++) {
+            // Each caller with its own cache, so every one of them goes to the provider.
+            final LocationResolver resolver = createResolver();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long id = resolver.resolve("04103", "Leipzig", 51.3, 12.4);
+                    synchronized (ids) {
+                        ids.add(id);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, ids.size());
+        assertEquals(1, countLocations("04103"));
+    }
+
+    public void testTableChangeDropsCache() {
+        LocationResolver resolver = createResolver();
+        resolver.resolve("04103", "Leipzig", 51.3, 12.4);
+        assertTrue(resolver.getCachedId("04103") > 0);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        // The observer is called asynchronously.
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (resolver.getCachedId("04103") >= 0 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(-1, resolver.getCachedId("04103"));
+    }
+
+    public void testSettingChangeDropsCache() {
+        LocationResolver resolver = createResolver();
+        long id = resolver.resolve("04103", "Leipzig", 51.3, 12.4);
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_SETTING, "04109");
+        mContext.getContentResolver().update(LocationEntry.buildLocationUri(id), values,
+                null, null);
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (resolver.getCachedId("04103") >= 0 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(-1, resolver.getCachedId("04103"));
+    }
+
+    private LocationResolver createResolver() {
+        LocationResolver resolver = new LocationResolver(mContext, 4);
+        mResolvers.add(resolver);
+        return resolver;
+    }
+
+    private int countLocations(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry.COLUMN_SETTING + " = ?", new String[]{locationSetting}, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -1,21 +1,33 @@
 package com.example.wiehlem.sunshine;
 
 import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.wiehlem.sunshine.data.WeatherContract;
 import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
 import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
 import com.example.wiehlem.sunshine.data.WeatherDbHelper;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by wiehlem on 28.07.2014.
@@ -23,6 +35,8 @@ import java.util.Set;
 public class TestProvider extends AndroidTestCase {
     public static final String LOG_TAG = TestProvider.class.getSimpleName();
 
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 5000;
+
     public void testDeleteDb() throws Throwable {
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
     }
@@ -35,7 +49,7 @@ public class TestProvider extends AndroidTestCase {
         type = mContext.getContentResolver().getType(WeatherEntry.buildWeatherLocation(testLocation));
         assertEquals(WeatherEntry.CONTENT_TYPE, type);
 
-        String testDate = "20140731";
+        long testDate = TestDb.TEST_DATE;
         type = mContext.getContentResolver().getType(WeatherEntry.buildWeatherLocationWithDate(testLocation, testDate));
         assertEquals(WeatherEntry.CONTENT_ITEM_TYPE, type);
 
@@ -183,6 +197,442 @@ public class TestProvider extends AndroidTestCase {
         TestDb.validateCursor(cursor, updatedValues);
     }
 
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testUpsertWritesOnlyChangedRows() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+
+        ContentValues first = createWeatherValues(locationRowId);
+        ContentValues second = createWeatherValues(locationRowId);
+        second.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+
+        Bundle counts = upsert(first, second);
+        assertEquals(2, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        long firstId = getWeatherRowId(TestDb.TEST_DATE);
+
+        // The same forecast again: nothing is written, not even through REPLACE.
+        counts = upsert(first, second);
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(2, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        assertEquals(firstId, getWeatherRowId(TestDb.TEST_DATE));
+
+        // One changed day is updated in place.
+        second.put(WeatherEntry.COLUMN_MAX_TEMP, 80.5);
+        counts = upsert(first, second);
+        assertEquals(0, counts.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(1, counts.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(1, counts.getInt(WeatherEntry.EXTRA_UNCHANGED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestDb.TEST_LOCATION, TestDb.TEST_DATE + 1),
+                null, null, null, null);
+        validateCursor(cursor, second);
+    }
+
+    public void testUpsertNotifiesOnlyOnChange() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues[] values = {createWeatherValues(locationRowId)};
+
+        RecordingObserver observer =
+                new RecordingObserver(WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION));
+        try {
+            assertEquals(1, mContext.getContentResolver()
+                    .bulkInsert(WeatherEntry.buildUpsertUri(), values));
+            assertEquals(1, observer.takeChanges());
+
+            assertEquals(0, mContext.getContentResolver()
+                    .bulkInsert(WeatherEntry.buildUpsertUri(), values));
+            assertEquals(0, observer.takeChanges());
+        } finally {
+            observer.unregister();
+        }
+    }
+
+    public void testPagingByStartDate() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[10];
+        // Inserted in reverse, the pages must still come in date order.
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + days.length - 1 - i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        long startDate = TestDb.TEST_DATE;
+        int[] expectedSizes = {4, 4, 2, 0};
+        for (int expectedSize : expectedSizes) {
+            Cursor page = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationPage(TestDb.TEST_LOCATION, startDate, 4),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertEquals(expectedSize, page.getCount());
+            for (int i = 0; page.moveToNext(); i++) {
+                assertEquals(startDate + i, page.getLong(0));
+            }
+            if (page.moveToLast()) {
+                startDate = page.getLong(0) + 1;
+            }
+            page.close();
+        }
+    }
+
+    public void testWeatherStatsAreAggregatedOverDays() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues[] days = new ContentValues[4];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createWeatherValues(locationRowId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + i);
+            days[i].put(WeatherEntry.COLUMN_MIN_TEMP, 10 + i);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+            days[i].put(WeatherEntry.COLUMN_HUMIDITY, 50 + 10 * i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        // The middle two days.
+        Uri statsUri = WeatherEntry.buildWeatherStatsUri(TestDb.TEST_LOCATION,
+                TestDb.TEST_DATE + 1, TestDb.TEST_DATE + 2);
+        assertEquals(WeatherEntry.CONTENT_ITEM_TYPE, mContext.getContentResolver().getType(statsUri));
+        Cursor stats = mContext.getContentResolver().query(statsUri, null, null, null, null);
+        assertEquals(1, stats.getCount());
+        assertTrue(stats.moveToFirst());
+        assertEquals(2, stats.getInt(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_DAYS)));
+        assertEquals(11.0, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_TEMP_MIN)));
+        assertEquals(22.0, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_TEMP_MAX)));
+        assertEquals(16.5, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_TEMP_AVG)));
+        assertEquals(60.0, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_HUMIDITY_MIN)));
+        assertEquals(70.0, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_HUMIDITY_MAX)));
+        assertEquals(65.0, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_HUMIDITY_AVG)));
+        assertEquals(5.5, stats.getDouble(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_WIND_AVG)));
+        stats.close();
+
+        // A projection picks from the aggregates, an unbounded uri covers every day.
+        stats = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStatsUri(TestDb.TEST_LOCATION, -1, -1),
+                new String[]{WeatherEntry.COLUMN_STATS_DAYS, WeatherEntry.COLUMN_STATS_TEMP_MAX},
+                null, null, null);
+        assertTrue(stats.moveToFirst());
+        assertEquals(2, stats.getColumnCount());
+        assertEquals(4, stats.getInt(0));
+        assertEquals(23.0, stats.getDouble(1));
+        stats.close();
+
+        // A changed day is seen, the statistics aren't served from a stale cache.
+        ContentValues warmer = createWeatherValues(locationRowId);
+        warmer.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+        warmer.put(WeatherEntry.COLUMN_MAX_TEMP, 30);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildUpsertUri(),
+                new ContentValues[]{warmer});
+        stats = mContext.getContentResolver().query(statsUri,
+                new String[]{WeatherEntry.COLUMN_STATS_TEMP_MAX}, null, null, null);
+        assertTrue(stats.moveToFirst());
+        assertEquals(30.0, stats.getDouble(0));
+        stats.close();
+
+        // No days: one row, with nothing to aggregate.
+        stats = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherStatsUri("unknown", -1, -1), null, null, null, null);
+        assertTrue(stats.moveToFirst());
+        assertEquals(0, stats.getInt(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_DAYS)));
+        assertTrue(stats.isNull(stats.getColumnIndex(WeatherEntry.COLUMN_STATS_TEMP_MIN)));
+        stats.close();
+    }
+
+    public void testDashboardHasTheDayOfEveryLocation() {
+        long northPoleId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues berlin = createNorthPoleLocationValues();
+        berlin.put(LocationEntry.COLUMN_SETTING, "10115");
+        berlin.put(LocationEntry.COLUMN_LOCATION_NAME, "Berlin");
+        long berlinId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, berlin));
+        ContentValues hamburg = createNorthPoleLocationValues();
+        hamburg.put(LocationEntry.COLUMN_SETTING, "20095");
+        hamburg.put(LocationEntry.COLUMN_LOCATION_NAME, "Hamburg");
+        long hamburgId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, hamburg));
+
+        ContentValues[] days = new ContentValues[]{
+                createWeatherValues(northPoleId), createWeatherValues(northPoleId),
+                createWeatherValues(berlinId), createWeatherValues(hamburgId)};
+        days[0].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE);
+        days[1].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+        days[2].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE);
+        days[2].put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        // Hamburg has no forecast for the day.
+        days[3].put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        Uri dashboardUri = WeatherContract.DashboardEntry.buildDashboardUri(TestDb.TEST_DATE);
+        assertEquals(WeatherContract.DashboardEntry.CONTENT_TYPE,
+                mContext.getContentResolver().getType(dashboardUri));
+        Cursor dashboard = mContext.getContentResolver().query(dashboardUri, null, null, null,
+                null);
+        try {
+            assertEquals(2, dashboard.getCount());
+            // By location name.
+            assertTrue(dashboard.moveToFirst());
+            assertEquals(berlinId, dashboard.getLong(dashboard.getColumnIndex(LocationEntry._ID)));
+            assertEquals("Rain", dashboard.getString(
+                    dashboard.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            assertTrue(dashboard.moveToNext());
+            assertEquals(northPoleId, dashboard.getLong(dashboard.getColumnIndex(LocationEntry._ID)));
+            assertEquals(TestDb.TEST_LOCATION, dashboard.getString(
+                    dashboard.getColumnIndex(LocationEntry.COLUMN_SETTING)));
+            assertEquals(TestDb.TEST_DATE, dashboard.getLong(
+                    dashboard.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        } finally {
+            dashboard.close();
+        }
+    }
+
+    public void testNotificationsAreScopedToLocationAndDate() throws Exception {
+        long leipzigId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, createNorthPoleLocationValues()));
+        ContentValues berlin = createNorthPoleLocationValues();
+        berlin.put(LocationEntry.COLUMN_SETTING, "10115");
+        berlin.put(LocationEntry.COLUMN_LOCATION_NAME, "Berlin");
+        long berlinId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, berlin));
+
+        // What the forecast lists of both locations and two detail views would watch.
+        RecordingObserver leipzigList = new RecordingObserver(
+                WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION));
+        RecordingObserver berlinList = new RecordingObserver(
+                WeatherEntry.buildWeatherLocation("10115"));
+        RecordingObserver leipzigFirstDay = new RecordingObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestDb.TEST_LOCATION, TestDb.TEST_DATE));
+        RecordingObserver leipzigSecondDay = new RecordingObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestDb.TEST_LOCATION, TestDb.TEST_DATE + 1));
+        try {
+            ContentValues first = createWeatherValues(leipzigId);
+            ContentValues second = createWeatherValues(leipzigId);
+            second.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+
+            // One day of one location.
+            mContext.getContentResolver().bulkInsert(WeatherEntry.buildUpsertUri(),
+                    new ContentValues[]{first});
+            assertEquals(1, leipzigList.takeChanges());
+            assertEquals(1, leipzigFirstDay.takeChanges());
+            assertEquals(0, leipzigSecondDay.takeChanges());
+            assertEquals(0, berlinList.takeChanges());
+
+            // Two days of one location, one notification of the location.
+            first.put(WeatherEntry.COLUMN_MAX_TEMP, 80.5);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.buildUpsertUri(),
+                    new ContentValues[]{first, second});
+            assertEquals(1, leipzigList.takeChanges());
+            assertEquals(1, leipzigFirstDay.takeChanges());
+            assertEquals(1, leipzigSecondDay.takeChanges());
+            assertEquals(0, berlinList.takeChanges());
+
+            // The other location.
+            mContext.getContentResolver().bulkInsert(WeatherEntry.buildUpsertUri(),
+                    new ContentValues[]{createWeatherValues(berlinId)});
+            assertEquals(0, leipzigList.takeChanges());
+            assertEquals(0, leipzigFirstDay.takeChanges());
+            assertEquals(0, leipzigSecondDay.takeChanges());
+            assertEquals(1, berlinList.takeChanges());
+        } finally {
+            leipzigList.unregister();
+            berlinList.unregister();
+            leipzigFirstDay.unregister();
+            leipzigSecondDay.unregister();
+        }
+    }
+
+    /**
+     * Records how often a loader watching the uri would re-query.
+     * <p>
+     * Notifications are delivered asynchronously. Rather than sleeping, {@link #takeChanges()}
+     * sends a marker of its own and waits for it: the resolver delivers an observer's
+     * notifications in order, so every change notified before the marker has been counted
+     * once it arrives, and a missing change is a real one, not a slow one.
+     */
+    private class RecordingObserver extends ContentObserver {
+        private final HandlerThread mThread;
+        private final Uri mMarkerUri;
+        private final AtomicInteger mChanges = new AtomicInteger();
+        private volatile CountDownLatch mMarker;
+
+        RecordingObserver(Uri uri) {
+            this(new HandlerThread(LOG_TAG), uri);
+        }
+
+        private RecordingObserver(HandlerThread thread, Uri uri) {
+            super(startHandler(thread));
+            mThread = thread;
+            // Outside the weather and location uris, so no other observer hears the marker.
+            mMarkerUri = WeatherContract.BASE_CONTENT_URI.buildUpon()
+                    .appendPath("test_marker")
+                    .appendPath(String.valueOf(System.identityHashCode(this)))
+                    .build();
+            // Cursors register for descendants, see Cursor.setNotificationUri().
+            mContext.getContentResolver().registerContentObserver(uri, true, this);
+            mContext.getContentResolver().registerContentObserver(mMarkerUri, false, this);
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            // The marker is sent as a self notification, the provider's never are.
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (selfChange) {
+                mMarker.countDown();
+            } else {
+                mChanges.incrementAndGet();
+            }
+        }
+
+        /**
+         * Returns the number of changes notified since the last call.
+         */
+        int takeChanges() throws InterruptedException {
+            mMarker = new CountDownLatch(1);
+            mContext.getContentResolver().notifyChange(mMarkerUri, this);
+            assertTrue("no notification within " + NOTIFICATION_TIMEOUT_MILLIS + "ms",
+                    mMarker.await(NOTIFICATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            return mChanges.getAndSet(0);
+        }
+
+        void unregister() {
+            mContext.getContentResolver().unregisterContentObserver(this);
+            mThread.quit();
+        }
+    }
+
+    private static Handler startHandler(HandlerThread thread) {
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    public void testApplyBatchStoresRefreshInOneCommit() throws Exception {
+        ContentValues first = createWeatherValues(0);
+        first.remove(WeatherEntry.COLUMN_LOC_KEY);
+        ContentValues second = new ContentValues(first);
+        second.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE + 1);
+
+        RecordingObserver observer =
+                new RecordingObserver(WeatherEntry.buildWeatherLocation(TestDb.TEST_LOCATION));
+        try {
+            ContentProviderResult[] results = applyRefresh(first, second);
+            assertEquals(3, results.length);
+            long locationRowId = ContentUris.parseId(results[0].uri);
+            assertTrue(locationRowId > 0);
+            assertEquals(WeatherEntry.OUTCOME_INSERTED, WeatherEntry.getUpsertOutcome(results[1].uri));
+            assertEquals(WeatherEntry.OUTCOME_INSERTED, WeatherEntry.getUpsertOutcome(results[2].uri));
+            assertEquals(1, observer.takeChanges());
+
+            // The back-reference carried the new location id into the weather rows.
+            first.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithDate(TestDb.TEST_LOCATION, TestDb.TEST_DATE),
+                    null, null, null, null);
+            validateCursor(cursor, first);
+
+            // The same refresh again finds the location and changes nothing.
+            results = applyRefresh(first, second);
+            assertEquals(locationRowId, ContentUris.parseId(results[0].uri));
+            assertEquals(WeatherEntry.OUTCOME_UNCHANGED, WeatherEntry.getUpsertOutcome(results[1].uri));
+            assertEquals(WeatherEntry.OUTCOME_UNCHANGED, WeatherEntry.getUpsertOutcome(results[2].uri));
+            assertEquals(0, observer.takeChanges());
+        } finally {
+            observer.unregister();
+        }
+    }
+
+    public void testLocationsMayShareAName() throws Exception {
+        // Another setting the server resolves to the same city.
+        ContentValues other = createNorthPoleLocationValues();
+        other.put(LocationEntry.COLUMN_SETTING, "99705");
+        long otherRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, other));
+        assertTrue(otherRowId > 0);
+
+        ContentValues day = createWeatherValues(0);
+        day.remove(WeatherEntry.COLUMN_LOC_KEY);
+        ContentProviderResult[] results = applyRefresh(day);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId > 0);
+        assertTrue(locationRowId != otherRowId);
+        assertEquals(WeatherEntry.OUTCOME_INSERTED, WeatherEntry.getUpsertOutcome(results[1].uri));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, LocationEntry.COLUMN_LOCATION_NAME + " = ?", new String[]{"North Pole"},
+                null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFailedBatchIsRolledBack() throws Exception {
+        ContentValues day = createWeatherValues(0);
+        day.remove(WeatherEntry.COLUMN_LOC_KEY);
+        ContentValues broken = new ContentValues(day);
+        broken.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        try {
+            applyRefresh(day, broken);
+            fail("A row violating NOT NULL should fail the batch");
+        } catch (SQLException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /**
+     * The location and its weather rows in one batch, as WeatherFetcher stores a refresh.
+     */
+    private ContentProviderResult[] applyRefresh(ContentValues... days) throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildUpsertUri())
+                .withValues(createNorthPoleLocationValues()).build());
+        for (ContentValues day : days) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.buildUpsertUri())
+                    .withValues(day)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        return mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bundle upsert(ContentValues... values) {
+        Bundle extras = new Bundle();
+        ArrayList<ContentValues> list = new ArrayList<ContentValues>();
+        for (ContentValues value : values) {
+            list.add(new ContentValues(value));
+        }
+        extras.putParcelableArrayList(WeatherEntry.EXTRA_VALUES, list);
+        return mContext.getContentResolver()
+                .call(WeatherEntry.CONTENT_URI, WeatherEntry.METHOD_UPSERT, null, extras);
+    }
+
+    private long getWeatherRowId(long date) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(date)},
+                null);
+        assertTrue(cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
     // brings our database to an empty state
     public void deleteAllRecords() {
         mContext.getContentResolver().delete(
@@ -227,7 +677,7 @@ public class TestProvider extends AndroidTestCase {
     static ContentValues createWeatherValues(long locationRowId) {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
-        weatherValues.put(WeatherEntry.COLUMN_DATETEXT, TestDb.TEST_DATE);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, TestDb.TEST_DATE);
         weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
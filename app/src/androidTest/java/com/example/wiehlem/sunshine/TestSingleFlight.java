@@ -0,0 +1,100 @@
+package com.example.wiehlem.sunshine;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestSingleFlight extends AndroidTestCase {
+
+    private static final int CALLERS = 5;
+
+    public void testConcurrentCallsShareOneRun() throws Throwable {
+        final SingleFlight<String> singleFlight = new SingleFlight<String>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final List<String> results = new ArrayList<String>();
+
+        final Callable<String> fetch = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                release.await();
+                return "Leipzig rows";
+            }
+        };
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < CALLERS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        String result = singleFlight.run("Leipzig", fetch);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception e) {
+                        fail(e.toString());
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Wait until everyone but the first caller has joined the flight.
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (singleFlight.getDuplicatesAvoided() < CALLERS - 1
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, runs.get());
+        assertEquals(CALLERS - 1, singleFlight.getDuplicatesAvoided());
+        assertEquals(CALLERS, results.size());
+        for (String result : results) {
+            assertEquals("Leipzig rows", result);
+        }
+    }
+
+    public void testSequentialCallsRunAgain() throws Throwable {
+        SingleFlight<Integer> singleFlight = new SingleFlight<Integer>();
+        final AtomicInteger runs = new AtomicInteger();
+        Callable<Integer> fetch = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return runs.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), singleFlight.run("Leipzig", fetch));
+        assertEquals(Integer.valueOf(2), singleFlight.run("Leipzig", fetch));
+        assertEquals(Integer.valueOf(3), singleFlight.run("94043", fetch));
+        assertEquals(0, singleFlight.getDuplicatesAvoided());
+    }
+
+    public void testFailureIsPassedOn() {
+        SingleFlight<String> singleFlight = new SingleFlight<String>();
+        try {
+            singleFlight.run("Leipzig", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IOException("HTTP 500");
+                }
+            });
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.wiehlem.sunshine;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the engine with a fetcher that only sleeps, so the timings show the scheduling.
+ */
+public class TestWeatherFetchEngine extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherFetchEngine.class.getSimpleName();
+
+    private static final long FETCH_MILLIS = 200;
+
+    /**
+     * Pretends to fetch, tracking how many fetches run at the same time.
+     */
+    private class SleepingFetcher extends WeatherFetcher {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        SleepingFetcher() {
+            super(getContext());
+        }
+
+        @Override
+        public Result fetch(String locationQuery) {
+            int now = running.incrementAndGet();
+            synchronized (maxRunning) {
+                if (now > maxRunning.get())
+                    maxRunning.set(now);
+            }
+            long start = SystemClock.elapsedRealtime();
+            try {
+                SystemClock.sleep(FETCH_MILLIS);
+                if (locationQuery.startsWith("broken")) {
+                    return new Result(locationQuery, Result.STATUS_FAILED, 0,
+                            new IOException("HTTP 500"), SystemClock.elapsedRealtime() - start);
+                }
+                if (locationQuery.startsWith("crashing")) {
+                    throw new IllegalStateException("unexpected");
+                }
+                return new Result(locationQuery, Result.STATUS_UPDATED, 14, null,
+                        SystemClock.elapsedRealtime() - start);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    public void testParallelFetch() {
+        SleepingFetcher fetcher = new SleepingFetcher();
+        WeatherFetchEngine engine = new WeatherFetchEngine(fetcher, 10);
+
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            locations.add("location " + i);
+        }
+
+        WeatherFetchEngine.Report report = engine.fetchAll(locations);
+        Log.d(LOG_TAG, "20 locations, concurrency 10: " + report.elapsedMillis + "ms");
+
+        assertEquals(20, report.results.size());
+        assertEquals(0, report.getFailureCount());
+        assertEquals(10, fetcher.maxRunning.get());
+        // Two rounds of fetches, not twenty.
+        assertTrue(report.elapsedMillis < 20 * FETCH_MILLIS / 2);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(locations.get(i), report.results.get(i).locationSetting);
+        }
+    }
+
+    public void testConcurrencyLimit() {
+        SleepingFetcher fetcher = new SleepingFetcher();
+        WeatherFetchEngine engine = new WeatherFetchEngine(fetcher, 2);
+
+        List<String> locations = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            locations.add("location " + i);
+        }
+
+        WeatherFetchEngine.Report report = engine.fetchAll(locations);
+        assertEquals(2, fetcher.maxRunning.get());
+        assertTrue(report.elapsedMillis >= 3 * FETCH_MILLIS);
+    }
+
+    public void testFailuresAreIsolated() {
+        WeatherFetchEngine engine = new WeatherFetchEngine(new SleepingFetcher(), 4);
+
+        List<String> locations = new ArrayList<String>();
+        locations.add("Leipzig");
+        locations.add("broken 1");
+        locations.add("crashing 1");
+        locations.add("94043");
+
+        WeatherFetchEngine.Report report = engine.fetchAll(locations);
+        assertEquals(4, report.results.size());
+        assertEquals(2, report.getFailureCount());
+        assertTrue(report.results.get(0).isSuccess());
+        assertFalse(report.results.get(1).isSuccess());
+        assertFalse(report.results.get(2).isSuccess());
+        assertTrue(report.results.get(2).error instanceof IllegalStateException);
+        assertTrue(report.results.get(3).isSuccess());
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+public class TestWeatherSettings extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherSettings.class.getSimpleName();
+
+    // About a hundred full scrolls through a 14 day forecast.
+    private static final int ROWS = 14 * 100;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_temperature_unit_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedUnits == null) {
+            mPrefs.edit().remove(mUnitsKey).commit();
+        } else {
+            mPrefs.edit().putString(mUnitsKey, mSavedUnits).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsPreferenceChanges() {
+        String metric = mContext.getString(R.string.pref_temperature_unit_default);
+        mPrefs.edit().putString(mUnitsKey, metric).commit();
+        waitForMetric(true);
+
+        mPrefs.edit().putString(mUnitsKey, "imperial").commit();
+        waitForMetric(false);
+        assertEquals(Utility.getPreferredLocation(mContext),
+                mPrefs.getString(mContext.getString(R.string.pref_location_key),
+                        mContext.getString(R.string.pref_location_default)));
+    }
+
+    /**
+     * The settings lookups ForecastAdapter.bindView and DetailFragment do per row, against
+     * the SharedPreferences directly and against the snapshot.
+     */
+    public void testBindLoopBenchmark() {
+        String metric = mContext.getString(R.string.pref_temperature_unit_default);
+        mPrefs.edit().putString(mUnitsKey, metric).commit();
+        waitForMetric(true);
+
+        // Warm up both paths, which also creates the snapshot.
+        bindDirect(ROWS);
+        bindSnapshot(ROWS);
+
+        long start = System.nanoTime();
+        int direct = bindDirect(ROWS);
+        long directNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int snapshot = bindSnapshot(ROWS);
+        long snapshotNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, String.format("%d rows: SharedPreferences %dns/row, snapshot %dns/row",
+                ROWS, directNanos / ROWS, snapshotNanos / ROWS));
+        assertEquals(ROWS, direct);
+        assertEquals(direct, snapshot);
+
+        // The snapshot is no stale copy, the next bind after a write sees it.
+        mPrefs.edit().putString(mUnitsKey, "imperial").commit();
+        waitForMetric(false);
+        assertEquals(0, bindDirect(ROWS));
+        assertEquals(0, bindSnapshot(ROWS));
+    }
+
+    private int bindDirect(int rows) {
+        int metricRows = 0;
+        for (int i = 0; i < rows; i++) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            boolean isMetric = prefs.getString(mContext.getString(R.string.pref_temperature_unit_key),
+                    mContext.getString(R.string.pref_temperature_unit_default))
+                    .equals(mContext.getString(R.string.pref_temperature_unit_default));
+            String location = prefs.getString(mContext.getString(R.string.pref_location_key),
+                    mContext.getString(R.string.pref_location_default));
+            if (isMetric && location != null) {
+                metricRows++;
+            }
+        }
+        return metricRows;
+    }
+
+    private int bindSnapshot(int rows) {
+        int metricRows = 0;
+        for (int i = 0; i < rows; i++) {
+            boolean isMetric = Utility.isMetric(mContext);
+            String location = Utility.getPreferredLocation(mContext);
+            if (isMetric && location != null) {
+                metricRows++;
+            }
+        }
+        return metricRows;
+    }
+
+    private void waitForMetric(boolean expected) {
+        // The listener runs on the main thread, committing from the test thread posts it.
+        long deadline = SystemClock.elapsedRealtime() + 2000;
+        while (Utility.isMetric(mContext) != expected
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(expected, Utility.isMetric(mContext));
+    }
+}
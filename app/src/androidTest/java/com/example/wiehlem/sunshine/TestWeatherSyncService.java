@@ -0,0 +1,79 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+public class TestWeatherSyncService extends AndroidTestCase {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testOnlyStaleLocationsAreDue() {
+        long now = System.currentTimeMillis();
+        insertLocation("fresh", now - HOUR / 4);
+        insertLocation("stale", now - 2 * HOUR);
+        insertLocation("never", 0);
+
+        List<String> due = WeatherSyncService.getDueLocations(mContext, now, HOUR);
+        assertFalse(due.contains("fresh"));
+        assertTrue(due.contains("stale"));
+        assertTrue(due.contains("never"));
+        // Not in the location table yet, so it has never been synced.
+        assertTrue(due.contains(Utility.getPreferredLocation(mContext)));
+    }
+
+    public void testFetchRecordsSyncTime() throws Throwable {
+        StubForecastServer server = new StubForecastServer();
+        try {
+            ForecastResponseCache.getInstance(mContext).remove("Stub City");
+            long before = System.currentTimeMillis();
+            new WeatherFetcher(mContext, server.getUrl()).fetch("Stub City");
+
+            Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                    new String[]{LocationEntry.COLUMN_LAST_SYNC},
+                    LocationEntry.COLUMN_SETTING + " = ?",
+                    new String[]{"Stub City"},
+                    null);
+            assertTrue(cursor.moveToFirst());
+            assertTrue(cursor.getLong(0) >= before);
+            cursor.close();
+
+            assertFalse(WeatherSyncService.getDueLocations(mContext, System.currentTimeMillis(), HOUR)
+                    .contains("Stub City"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private void insertLocation(String setting, long lastSync) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_SETTING, setting);
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, "City " + setting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        values.put(LocationEntry.COLUMN_LAST_SYNC, lastSync);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
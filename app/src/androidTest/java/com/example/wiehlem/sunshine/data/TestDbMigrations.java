@@ -0,0 +1,359 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Creates databases as every past version of the app left them, upgrades them and checks
+ * that the data survives and the schema ends up the same as a freshly created one.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String TEST_DATABASE = "migration_test.db";
+    private static final String FRESH_DATABASE = "migration_fresh.db";
+
+    // The schema of every past version, exactly as its onCreate() created it.
+    private static final String[][] SCHEMAS = {
+            null,
+            // 1
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                            "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                            " UNIQUE (location_name) ON CONFLICT IGNORE);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date TEXT NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                            "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                            "last_sync INTEGER NOT NULL DEFAULT 0," +
+                            " UNIQUE (location_name) ON CONFLICT IGNORE);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date TEXT NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // 3
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                            "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                            "last_sync INTEGER NOT NULL DEFAULT 0," +
+                            " UNIQUE (location_name) ON CONFLICT IGNORE);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date TEXT NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);",
+                    "CREATE UNIQUE INDEX location_setting_idx ON location (location_setting);"
+            },
+            // 4
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                            "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                            "last_sync INTEGER NOT NULL DEFAULT 0," +
+                            " UNIQUE (location_name) ON CONFLICT IGNORE);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);",
+                    "CREATE UNIQUE INDEX location_setting_idx ON location (location_setting);"
+            },
+            // 5
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                            "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                            "last_sync INTEGER NOT NULL DEFAULT 0," +
+                            " UNIQUE (location_name) ON CONFLICT IGNORE);",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                            "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);",
+                    "CREATE UNIQUE INDEX location_setting_idx ON location (location_setting);",
+                    "CREATE VIRTUAL TABLE location_search USING fts3(location_name, " +
+                            "location_setting);",
+                    "CREATE TRIGGER location_search_insert AFTER INSERT ON location BEGIN " +
+                            "INSERT INTO location_search (docid, location_name, " +
+                            "location_setting) VALUES (new._id, new.location_name, " +
+                            "new.location_setting); END;",
+                    "CREATE TRIGGER location_search_update AFTER UPDATE OF location_name, " +
+                            "location_setting ON location BEGIN DELETE FROM location_search " +
+                            "WHERE docid = old._id; INSERT INTO location_search (docid, " +
+                            "location_name, location_setting) VALUES (new._id, " +
+                            "new.location_name, new.location_setting); END;",
+                    "CREATE TRIGGER location_search_delete AFTER DELETE ON location BEGIN " +
+                            "DELETE FROM location_search WHERE docid = old._id; END;"
+            }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+        super.tearDown();
+    }
+
+    public void testEveryPastVersionHasASchema() {
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, SCHEMAS.length);
+    }
+
+    public void testMigrationsAreContiguous() {
+        for (int i = 0; i < WeatherDbMigrations.MIGRATIONS.length; i++) {
+            assertEquals(i + 2, WeatherDbMigrations.MIGRATIONS[i].toVersion);
+        }
+        assertEquals(WeatherDbHelper.DATABASE_VERSION,
+                WeatherDbMigrations.MIGRATIONS[WeatherDbMigrations.MIGRATIONS.length - 1].toVersion);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        List<String> expectedSchema = describeFreshSchema();
+
+        for (int version = 1; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(TEST_DATABASE);
+            SQLiteDatabase db = createDatabase(version);
+            insertSampleData(db, version);
+            db.close();
+
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, TEST_DATABASE);
+            db = helper.getWritableDatabase();
+            try {
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("from version " + version, expectedSchema, describeSchema(db));
+
+                assertEquals(1, DatabaseUtils.queryNumEntries(db, "location"));
+                assertEquals(2, DatabaseUtils.queryNumEntries(db, "weather"));
+                Cursor cursor = db.rawQuery("SELECT date, typeof(date), max FROM weather " +
+                        "ORDER BY date", null);
+                assertTrue(cursor.moveToFirst());
+                assertEquals(16282, cursor.getLong(0));
+                assertEquals("integer", cursor.getString(1));
+                assertEquals(21.5, cursor.getDouble(2));
+                assertTrue(cursor.moveToNext());
+                assertEquals(16283, cursor.getLong(0));
+                cursor.close();
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    public void testToVersion2AddsLastSync() {
+        SQLiteDatabase db = createDatabase(1);
+        try {
+            insertSampleData(db, 1);
+            WeatherDbMigrations.TO_VERSION_2.migrate(db);
+            assertEquals(0, DatabaseUtils.longForQuery(db,
+                    "SELECT MAX(last_sync) FROM location", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testToVersion3DropsDuplicateSettings() {
+        SQLiteDatabase db = createDatabase(2);
+        try {
+            insertSampleData(db, 2);
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, "location"));
+            WeatherDbMigrations.TO_VERSION_3.migrate(db);
+            assertEquals(1, DatabaseUtils.queryNumEntries(db, "location"));
+            // The duplicate's forecast is gone, the other location keeps its rows.
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, "weather"));
+            assertEquals("Leipzig", DatabaseUtils.stringForQuery(db,
+                    "SELECT location_name FROM location", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testToVersion4ConvertsDates() {
+        SQLiteDatabase db = createDatabase(3);
+        try {
+            db.execSQL("INSERT INTO location (_id, location_name, location_setting, " +
+                    "location_lat, location_long) VALUES (1, 'Leipzig', '04103', 51.3, 12.4)");
+            insertWeather(db, 1, "19700101");
+            insertWeather(db, 1, "20140731");
+            insertWeather(db, 1, "20160229");
+            WeatherDbMigrations.TO_VERSION_4.migrate(db);
+
+            Cursor cursor = db.rawQuery("SELECT date FROM weather ORDER BY date", null);
+            long[] expected = {0, 16282, 16860};
+            for (long date : expected) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(date, cursor.getLong(0));
+            }
+            cursor.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testToVersion5IndexesLocationsForSearch() {
+        SQLiteDatabase db = createDatabase(4);
+        try {
+            insertSampleData(db, 4);
+            WeatherDbMigrations.TO_VERSION_5.migrate(db);
+            assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT docid FROM location_search " +
+                    "WHERE location_search MATCH 'leip*'", null));
+
+            // From here on the triggers keep it up to date.
+            db.execSQL("UPDATE location SET location_name = 'Halle' WHERE _id = 1");
+            assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                    "location_search WHERE location_search MATCH 'leip*'", null));
+            assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                    "location_search WHERE location_search MATCH 'hal*'", null));
+            db.execSQL("DELETE FROM location");
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, "location_search"));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testToVersion6AllowsSharedNames() {
+        SQLiteDatabase db = createDatabase(5);
+        try {
+            insertSampleData(db, 5);
+            WeatherDbMigrations.TO_VERSION_6.migrate(db);
+            db.execSQL("INSERT INTO location (location_name, location_setting, location_lat, " +
+                    "location_long) VALUES ('Leipzig', '04109', 51.3, 12.4)");
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM location " +
+                    "WHERE location_name = 'Leipzig'", null));
+            // The rows kept their ids, and the search triggers are back.
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM weather " +
+                    "WHERE location_id = 1", null));
+            assertEquals(2, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " +
+                    "location_search WHERE location_search MATCH 'leip*'", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase createDatabase(int version) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(TEST_DATABASE), null);
+        for (String statement : SCHEMAS[version]) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    /**
+     * Two locations sharing a setting where that was still possible, and two forecast days.
+     */
+    private static void insertSampleData(SQLiteDatabase db, int version) {
+        db.execSQL("INSERT INTO location (_id, location_name, location_setting, location_lat, " +
+                "location_long) VALUES (1, 'Leipzig', '04103', 51.3, 12.4)");
+        if (version < 3) {
+            db.execSQL("INSERT INTO location (_id, location_name, location_setting, " +
+                    "location_lat, location_long) VALUES (2, 'Leipzig Mitte', '04103', 51.3, 12.4)");
+            insertWeather(db, 2, "20140731");
+        }
+        if (version < 4) {
+            insertWeather(db, 1, "20140731");
+            insertWeather(db, 1, "20140801");
+        } else {
+            insertWeather(db, 1, 16282L);
+            insertWeather(db, 1, 16283L);
+        }
+    }
+
+    /**
+     * @param date yyyyMMdd text before version 4, an epoch day from then on
+     */
+    private static void insertWeather(SQLiteDatabase db, long locationId, Object date) {
+        db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, min, max, " +
+                        "humidity, pressure, wind, degrees) VALUES (?, ?, 'Clear', 800, 12.5, 21.5, " +
+                        "60, 1013.2, 3.4, 270)",
+                new Object[]{locationId, date});
+    }
+
+    private List<String> describeFreshSchema() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, FRESH_DATABASE);
+        try {
+            return describeSchema(helper.getReadableDatabase());
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * The columns and indexes of both tables, regardless of how they got there, and the
+     * tables and triggers of the location search.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        for (String table : new String[]{"location", "weather"}) {
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.add(table + " column " +
+                        columns.getString(columns.getColumnIndex("name")) + " " +
+                        columns.getString(columns.getColumnIndex("type")) + " notnull=" +
+                        columns.getInt(columns.getColumnIndex("notnull")) + " default=" +
+                        columns.getString(columns.getColumnIndex("dflt_value")) + " pk=" +
+                        columns.getInt(columns.getColumnIndex("pk")));
+            }
+            columns.close();
+
+            List<String> indexes = new ArrayList<String>();
+            Cursor indexList = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexList.moveToNext()) {
+                String name = indexList.getString(indexList.getColumnIndex("name"));
+                StringBuilder index = new StringBuilder(table).append(" index")
+                        .append(indexList.getInt(indexList.getColumnIndex("unique")) != 0
+                                ? " unique" : "");
+                Cursor indexColumns = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+                while (indexColumns.moveToNext()) {
+                    index.append(' ').append(
+                            indexColumns.getString(indexColumns.getColumnIndex("name")));
+                }
+                indexColumns.close();
+                indexes.add(index.toString());
+            }
+            indexList.close();
+            Collections.sort(indexes);
+            schema.addAll(indexes);
+        }
+
+        Cursor search = db.rawQuery("SELECT type, name FROM sqlite_master WHERE " +
+                "name LIKE 'location_search%' ORDER BY type, name", null);
+        while (search.moveToNext()) {
+            schema.add(search.getString(0) + " " + search.getString(1));
+        }
+        search.close();
+        return schema;
+    }
+}
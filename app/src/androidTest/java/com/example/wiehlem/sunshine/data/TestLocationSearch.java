@@ -0,0 +1,135 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefix search of the locations through the full-text index, and how fast it stays with
+ * a large city list stored.
+ */
+public class TestLocationSearch extends AndroidTestCase {
+    public static final String LOG_TAG = TestLocationSearch.class.getSimpleName();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllLocations();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllLocations();
+        super.tearDown();
+    }
+
+    public void testFindsPrefixesOfEveryWord() {
+        insertLocation("Frankfurt am Main", "60311");
+        insertLocation("Frankfurt (Oder)", "15230");
+        insertLocation("Bad Frankenhausen", "06567");
+        insertLocation("Leipzig", "04103");
+
+        assertEquals(list("Frankfurt (Oder)", "Frankfurt am Main", "Bad Frankenhausen"),
+                search("fran"));
+        assertEquals(list("Frankfurt am Main"), search("Frankf  MAIN"));
+        assertEquals(list("Leipzig"), search("0410"));
+        assertEquals(list(), search("Berlin"));
+        // Nothing to search for.
+        assertEquals(list(), search("*\"-"));
+    }
+
+    public void testFollowsChangesOfTheLocationTable() {
+        insertLocation("Leipzig", "04103");
+        assertEquals(list("Leipzig"), search("lei"));
+
+        ContentValues rename = new ContentValues();
+        rename.put(LocationEntry.COLUMN_LOCATION_NAME, "Halle");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, rename, null, null);
+        assertEquals(list(), search("lei"));
+        assertEquals(list("Halle"), search("hal"));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals(list(), search("hal"));
+    }
+
+    public void testSearchBenchmark() {
+        final int locations = 20000;
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (int i = 0; i < locations; i++) {
+                    values.put(LocationEntry.COLUMN_LOCATION_NAME, "City" + i + " Town" + i % 97);
+                    values.put(LocationEntry.COLUMN_SETTING, Integer.toString(10000 + i));
+                    values.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+                    values.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+                    db.insert(LocationEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+
+        final int runs = 100;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < runs; i++) {
+            // Prefixes matching a single city up to a few hundred of them.
+            String query = i % 2 == 0 ? "city" + (i * 131 % locations) : "town" + (i % 97);
+            Cursor cursor = mContext.getContentResolver().query(
+                    LocationEntry.buildSearchUri(query, 20), null, null, null, null);
+            assertTrue(query, cursor.getCount() > 0);
+            cursor.close();
+        }
+        Log.d(LOG_TAG, String.format("Search in %d locations: %dms per query", locations,
+                (SystemClock.elapsedRealtime() - start) / runs));
+    }
+
+    private List<String> search(String query) {
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildSearchUri(query, 10),
+                new String[]{LocationEntry.COLUMN_LOCATION_NAME}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    private static List<String> list(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private void insertLocation(String name, String setting) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, name);
+        values.put(LocationEntry.COLUMN_SETTING, setting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+    }
+
+    private void deleteAllLocations() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
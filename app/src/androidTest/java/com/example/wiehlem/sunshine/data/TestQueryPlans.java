@@ -0,0 +1,318 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the queries of every provider route are answered
+ * through an index instead of a table scan, and measures the location lookup with many
+ * locations stored and the forecast list query with and without the location join.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "query_plans_test.db";
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The columns of the forecast list, see Utility.FORECAST_COLUMNS.
+    private static final String[] FORECAST_COLUMNS = new String[]{
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private WeatherDbHelper mOpenHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A database of its own, the benchmark drops an index the provider relies on.
+        mContext.deleteDatabase(TEST_DATABASE);
+        mOpenHelper = new WeatherDbHelper(mContext, TEST_DATABASE);
+        mDb = mOpenHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOpenHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    public void testWeatherWithLocationUsesIndexes() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocation("99705"), null, null);
+    }
+
+    public void testWeatherWithLocationAndStartDateUsesIndexes() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocationWithStartDate("99705", 16283),
+                null, null);
+    }
+
+    public void testWeatherWithLocationAndDateUsesIndexes() {
+        assertUsesIndexes(WeatherEntry.buildWeatherLocationWithDate("99705", 16283),
+                null, null);
+    }
+
+    public void testWeatherStatsUsesIndexes() {
+        assertUsesIndexes(WeatherEntry.buildWeatherStatsUri("99705", 16283, 16296), null, null);
+    }
+
+    public void testWeatherByLocationIdAndDateUsesIndex() {
+        // The stored row lookup of the upsert.
+        assertUsesIndexes(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{"1", "16283"});
+    }
+
+    public void testLocationBySettingUsesIndex() {
+        // How WeatherFetcher looks up a location and marks it synced.
+        assertUsesIndexes(LocationEntry.CONTENT_URI, LocationEntry.COLUMN_SETTING + " = ?",
+                new String[]{"99705"});
+    }
+
+    public void testLocationIdUsesPrimaryKey() {
+        assertUsesIndexes(LocationEntry.buildLocationUri(1), null, null);
+    }
+
+    public void testWeatherWithLocationIdUsesIndexWithoutJoin() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate("99705", 16283);
+        List<String> plan = explain(WeatherProvider.buildQuery(uri, FORECAST_COLUMNS, null, null,
+                SORT_ORDER, 1));
+        assertEquals(plan.toString(), 1, plan.size());
+        assertTrue(plan.get(0), plan.get(0).contains("INDEX"));
+        assertFalse(plan.get(0), plan.get(0).contains(LocationEntry.TABLE_NAME + " "));
+    }
+
+    public void testNeedsLocationJoin() {
+        assertFalse(WeatherProvider.needsLocationJoin(FORECAST_COLUMNS, SORT_ORDER));
+        assertFalse(WeatherProvider.needsLocationJoin(new String[]{
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_SETTING}, null));
+        assertTrue(WeatherProvider.needsLocationJoin(null, SORT_ORDER));
+        assertTrue(WeatherProvider.needsLocationJoin(new String[]{
+                LocationEntry.COLUMN_LOCATION_NAME}, null));
+        assertTrue(WeatherProvider.needsLocationJoin(new String[]{
+                LocationEntry.TABLE_NAME + "." + LocationEntry._ID}, null));
+        assertTrue(WeatherProvider.needsLocationJoin(new String[]{"count(*)"}, null));
+        assertTrue(WeatherProvider.needsLocationJoin(FORECAST_COLUMNS,
+                LocationEntry.COLUMN_COORD_LAT + " ASC"));
+    }
+
+    public void testQueryWithoutJoinReturnsSameRows() {
+        long locationId = insertForecasts(3, 14);
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate("setting 1", 16283);
+        List<String> joined = read(WeatherProvider.buildQuery(uri, FORECAST_COLUMNS, null, null,
+                SORT_ORDER));
+        List<String> alone = read(WeatherProvider.buildQuery(uri, FORECAST_COLUMNS, null, null,
+                SORT_ORDER, locationId + 1));
+        assertEquals(11, joined.size());
+        assertEquals(joined, alone);
+    }
+
+    public void testForecastListBenchmark() {
+        final int days = 14;
+        for (int locations : new int[]{10, 100, 1000}) {
+            long firstId = insertForecasts(locations, days);
+            String setting = "setting " + locations / 2;
+            Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(setting, 16280);
+            WeatherProvider.QuerySpec joined =
+                    WeatherProvider.buildQuery(uri, FORECAST_COLUMNS, null, null, SORT_ORDER);
+            WeatherProvider.QuerySpec alone = WeatherProvider.buildQuery(uri, FORECAST_COLUMNS,
+                    null, null, SORT_ORDER, firstId + locations / 2);
+
+            long joinMicros = timeQueries(joined, days);
+            long aloneMicros = timeQueries(alone, days);
+            Log.d(LOG_TAG, String.format("Forecast list of %d weather rows: %dus with the join, " +
+                    "%dus without", locations * days, joinMicros, aloneMicros));
+            clear();
+        }
+    }
+
+    public void testDashboardLooksUpWeatherThroughIndex() {
+        final int locations = 500;
+        insertForecasts(locations, 14);
+        WeatherProvider.QuerySpec spec = WeatherProvider.buildQuery(
+                WeatherContract.DashboardEntry.buildDashboardUri(16283), null, null, null, null);
+        List<String> plan = explain(spec);
+        for (String step : plan) {
+            // The locations are walked once, every one's day is a lookup in the weather index.
+            if (step.contains(WeatherEntry.TABLE_NAME + " ")) {
+                assertTrue(step, step.startsWith("SEARCH") && step.contains("INDEX"));
+            }
+            assertFalse(step, step.contains("TEMP B-TREE"));
+        }
+
+        final int runs = 50;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < runs; i++) {
+            Cursor cursor = mDb.rawQuery(spec.sql, spec.selectionArgs);
+            assertEquals(locations, cursor.getCount());
+            cursor.close();
+        }
+        Log.d(LOG_TAG, String.format("Dashboard of %d locations: %dus", locations,
+                (SystemClock.elapsedRealtime() - start) * 1000 / runs));
+    }
+
+    /**
+     * Store a forecast of the days for every location, named "setting 0" and so on.
+     *
+     * @return the row id of the first location, the others follow it
+     */
+    private long insertForecasts(int locations, int days) {
+        long firstId = -1;
+        mDb.beginTransaction();
+        try {
+            ContentValues location = new ContentValues();
+            ContentValues weather = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                location.put(LocationEntry.COLUMN_SETTING, "setting " + i);
+                location.put(LocationEntry.COLUMN_LOCATION_NAME, "City " + i);
+                location.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+                location.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+                long id = mDb.insert(LocationEntry.TABLE_NAME, null, location);
+                if (i == 0) {
+                    firstId = id;
+                }
+                for (int day = 0; day < days; day++) {
+                    weather.put(WeatherEntry.COLUMN_LOC_KEY, id);
+                    weather.put(WeatherEntry.COLUMN_DATE, 16280 + day);
+                    weather.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                    weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                    weather.put(WeatherEntry.COLUMN_MIN_TEMP, 12.5);
+                    weather.put(WeatherEntry.COLUMN_MAX_TEMP, 21.5);
+                    weather.put(WeatherEntry.COLUMN_HUMIDITY, 60);
+                    weather.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+                    weather.put(WeatherEntry.COLUMN_WIND_SPEED, 3.4);
+                    weather.put(WeatherEntry.COLUMN_DEGREES, 270);
+                    mDb.insert(WeatherEntry.TABLE_NAME, null, weather);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return firstId;
+    }
+
+    /**
+     * @return the mean time of a query in microseconds
+     */
+    private long timeQueries(WeatherProvider.QuerySpec spec, int expectedRows) {
+        final int runs = 500;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < runs; i++) {
+            Cursor cursor = mDb.rawQuery(spec.sql, spec.selectionArgs);
+            assertEquals(expectedRows, cursor.getCount());
+            cursor.close();
+        }
+        return (SystemClock.elapsedRealtime() - start) * 1000 / runs;
+    }
+
+    private List<String> read(WeatherProvider.QuerySpec spec) {
+        List<String> rows = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery(spec.sql, spec.selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    row.append(cursor.getColumnName(column)).append('=')
+                            .append(cursor.getString(column)).append(' ');
+                }
+                rows.add(row.toString());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    public void testLocationLookupBenchmark() {
+        final int locations = 5000;
+        mDb.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                values.put(LocationEntry.COLUMN_SETTING, "setting " + i);
+                values.put(LocationEntry.COLUMN_LOCATION_NAME, "City " + i);
+                values.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+                values.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+                mDb.insert(LocationEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        long indexed = timeLookups(locations);
+        mDb.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_LOCATION_SETTING);
+        long scanned;
+        try {
+            scanned = timeLookups(locations);
+        } finally {
+            mDb.execSQL("CREATE UNIQUE INDEX " + WeatherDbHelper.INDEX_LOCATION_SETTING +
+                    " ON " + LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_SETTING + ")");
+        }
+
+        // Only logged, the plan tests above check that the index is used.
+        Log.d(LOG_TAG, String.format("1000 lookups in %d locations: %dms with the index, " +
+                "%dms without", locations, indexed, scanned));
+    }
+
+    private long timeLookups(int locations) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < 1000; i++) {
+            String setting = "setting " + (i * 7919 % locations);
+            WeatherProvider.QuerySpec spec = WeatherProvider.buildQuery(
+                    WeatherEntry.buildWeatherLocation(setting), null, null, null, SORT_ORDER);
+            Cursor cursor = mDb.rawQuery(spec.sql, spec.selectionArgs);
+            cursor.getCount();
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private void assertUsesIndexes(Uri uri, String selection, String[] selectionArgs) {
+        WeatherProvider.QuerySpec spec =
+                WeatherProvider.buildQuery(uri, null, selection, selectionArgs, SORT_ORDER);
+        List<String> plan = explain(spec);
+        assertFalse(plan.isEmpty());
+        for (String step : plan) {
+            if (step.contains("B-TREE")) {
+                // A temporary b-tree for sorting, not a table access.
+                continue;
+            }
+            // "SEARCH TABLE weather USING INDEX ...", "... USING INTEGER PRIMARY KEY ..."
+            assertTrue(uri + ": " + plan, step.contains("INDEX") || step.contains("PRIMARY KEY"));
+        }
+    }
+
+    private List<String> explain(WeatherProvider.QuerySpec spec) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + spec.sql, spec.selectionArgs);
+        try {
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.v(LOG_TAG, spec.sql + ": " + plan);
+        return plan;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Hits, precise invalidation and eviction of the provider's query result cache.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestQueryResultCache extends AndroidTestCase {
+
+    private static final Uri LEIPZIG = WeatherEntry.buildWeatherLocation("04103");
+    private static final Uri LEIPZIG_DAY = WeatherEntry.buildWeatherLocationWithDate("04103", 16282);
+    private static final Uri BERLIN = WeatherEntry.buildWeatherLocation("10115");
+
+    private QueryResultCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new QueryResultCache(QueryResultCache.DEFAULT_MAX_BYTES,
+                QueryResultCache.DEFAULT_MAX_ROWS);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testServesCachedRows() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        assertNull(mCache.get(spec(LEIPZIG)));
+        Cursor cursor = mCache.put(spec(LEIPZIG), LEIPZIG, rows(3),
+                mCache.getGeneration());
+        assertEquals(3, cursor.getCount());
+
+        cursor = mCache.get(spec(LEIPZIG));
+        assertNotNull(cursor);
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(16284, cursor.getLong(0));
+        assertEquals("Clear", cursor.getString(1));
+        assertEquals(21.5, cursor.getDouble(2));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(2));
+        cursor.close();
+
+        assertEquals(1, mCache.getHits());
+        assertEquals(1, mCache.getMisses());
+    }
+
+    public void testInvalidatesOnlyAffectedResults() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mCache.put(spec(LEIPZIG), LEIPZIG, rows(3), mCache.getGeneration());
+        mCache.put(spec(LEIPZIG_DAY), LEIPZIG_DAY, rows(1), mCache.getGeneration());
+        mCache.put(spec(BERLIN), BERLIN, rows(3), mCache.getGeneration());
+
+        // A day of one location: its list and that day, not the other location.
+        mCache.invalidate(LEIPZIG_DAY);
+        assertNull(mCache.get(spec(LEIPZIG)));
+        assertNull(mCache.get(spec(LEIPZIG_DAY)));
+        assertNotNull(mCache.get(spec(BERLIN)));
+
+        // The weather rows join the location table.
+        mCache.invalidate(LocationEntry.buildLocationUri(1));
+        assertEquals(0, mCache.getSize());
+        assertEquals(0, mCache.getBytes());
+    }
+
+    public void testResultReadDuringInvalidationIsNotCached() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long generation = mCache.getGeneration();
+        mCache.invalidate(LEIPZIG_DAY);
+        Cursor cursor = mCache.put(spec(LEIPZIG), LEIPZIG, rows(3), generation);
+        assertEquals(3, cursor.getCount());
+        assertNull(mCache.get(spec(LEIPZIG)));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // Room for two results of three rows.
+        mCache = new QueryResultCache(1000, QueryResultCache.DEFAULT_MAX_ROWS);
+        mCache.put(spec(LEIPZIG), LEIPZIG, rows(3), mCache.getGeneration());
+        mCache.put(spec(BERLIN), BERLIN, rows(3), mCache.getGeneration());
+        assertEquals(2, mCache.getSize());
+        mCache.get(spec(LEIPZIG)).close();
+
+        Uri hamburg = WeatherEntry.buildWeatherLocation("20095");
+        mCache.put(spec(hamburg), hamburg, rows(3), mCache.getGeneration());
+        assertEquals(1, mCache.getEvictions());
+        assertNotNull(mCache.get(spec(LEIPZIG)));
+        assertNull(mCache.get(spec(BERLIN)));
+        assertTrue(mCache.getBytes() <= 1000);
+    }
+
+    public void testProviderServesRepeatedQueriesFromCache() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_SETTING, "04103");
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Leipzig");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        insertDay(locationId, 16282, 21.5);
+
+        int hits = getCacheStats().getInt(WeatherEntry.EXTRA_HITS);
+        assertEquals(21.5, queryMaxTemp());
+        assertEquals(21.5, queryMaxTemp());
+        assertEquals(hits + 1, getCacheStats().getInt(WeatherEntry.EXTRA_HITS));
+
+        // A write to the same location and day is seen right away.
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 25.0);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update, null, null);
+        assertEquals(25.0, queryMaxTemp());
+    }
+
+    private double queryMaxTemp() {
+        Cursor cursor = mContext.getContentResolver().query(LEIPZIG_DAY,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Bundle getCacheStats() {
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherEntry.METHOD_QUERY_CACHE_STATS, null, null);
+    }
+
+    private void insertDay(long locationId, long date, double max) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 12.5);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 60);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.4);
+        values.put(WeatherEntry.COLUMN_DEGREES, 270);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private static WeatherProvider.QuerySpec spec(Uri uri) {
+        return WeatherProvider.buildQuery(uri, null, null, null, null);
+    }
+
+    private static Cursor rows(int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_MAX_TEMP});
+        for (int i = 0; i < count; i++) {
+            cursor.addRow(new Object[]{16282L + i, "Clear", 21.5});
+        }
+        return cursor;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
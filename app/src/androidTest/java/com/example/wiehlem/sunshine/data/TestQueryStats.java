@@ -0,0 +1,161 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.StatsEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * The latency and row statistics the provider serves on {@link StatsEntry#CONTENT_URI}.
+ */
+public class TestQueryStats extends AndroidTestCase {
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_SETTING, "04103");
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Leipzig");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        mLocationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        mContext.getContentResolver().delete(StatsEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setSlowQueryThreshold(-1);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testRecordsCallsRowsAndLatency() {
+        ContentValues[] days = new ContentValues[3];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = createDay(16282 + i);
+        }
+        assertEquals(3, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days));
+        for (int i = 0; i < 2; i++) {
+            mContext.getContentResolver().query(WeatherEntry.buildWeatherLocation("04103"),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null).close();
+        }
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 25.0);
+        assertEquals(3, mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update,
+                null, null));
+
+        Cursor stats = mContext.getContentResolver().query(StatsEntry.CONTENT_URI, null, null,
+                null, null);
+        try {
+            assertStats(stats, WeatherContract.PATH_WEATHER, StatsEntry.OPERATION_BULK_INSERT, 1, 3);
+            assertStats(stats, WeatherContract.PATH_WEATHER + "/*", StatsEntry.OPERATION_QUERY, 2, 6);
+            assertStats(stats, WeatherContract.PATH_WEATHER, StatsEntry.OPERATION_UPDATE, 1, 3);
+            // Nothing slow is counted while the logging is off.
+            assertEquals(0, getInt(stats, StatsEntry.COLUMN_SLOW));
+        } finally {
+            stats.close();
+        }
+
+        mContext.getContentResolver().delete(StatsEntry.CONTENT_URI, null, null);
+        stats = mContext.getContentResolver().query(StatsEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals(0, stats.getCount());
+        stats.close();
+    }
+
+    public void testCountsSlowCalls() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        // Every call is slow, and logged with its plan.
+        setSlowQueryThreshold(0);
+        mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate("04103", 16282), null, null, null,
+                null).close();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)});
+
+        Cursor stats = mContext.getContentResolver().query(StatsEntry.CONTENT_URI, null, null,
+                null, null);
+        try {
+            assertStats(stats, WeatherContract.PATH_WEATHER + "/*/#", StatsEntry.OPERATION_QUERY,
+                    1, 0);
+            assertEquals(1, getInt(stats, StatsEntry.COLUMN_SLOW));
+            assertStats(stats, WeatherContract.PATH_WEATHER, StatsEntry.OPERATION_DELETE, 1, 0);
+            assertEquals(1, getInt(stats, StatsEntry.COLUMN_SLOW));
+        } finally {
+            stats.close();
+        }
+    }
+
+    /**
+     * Move to the row of the route and operation and check its counts. The histogram has to
+     * account for every call.
+     */
+    private static void assertStats(Cursor stats, String route, String operation, int calls,
+                                    long rows) {
+        boolean found = false;
+        for (stats.moveToFirst(); !stats.isAfterLast(); stats.moveToNext()) {
+            if (route.equals(stats.getString(stats.getColumnIndex(StatsEntry.COLUMN_ROUTE)))
+                    && operation.equals(stats.getString(
+                    stats.getColumnIndex(StatsEntry.COLUMN_OPERATION)))) {
+                found = true;
+                break;
+            }
+        }
+        assertTrue(route + " " + operation, found);
+        assertEquals(calls, getInt(stats, StatsEntry.COLUMN_CALLS));
+        assertEquals(rows, stats.getLong(stats.getColumnIndex(StatsEntry.COLUMN_ROWS)));
+
+        int bucketed = getInt(stats, StatsEntry.COLUMN_BUCKET_SLOWER);
+        for (int i = 0; i < StatsEntry.BUCKET_BOUNDS_MILLIS.length; i++) {
+            bucketed += getInt(stats, StatsEntry.getBucketColumn(i));
+        }
+        assertEquals(calls, bucketed);
+        assertTrue(stats.getLong(stats.getColumnIndex(StatsEntry.COLUMN_MAX_MICROS))
+                <= stats.getLong(stats.getColumnIndex(StatsEntry.COLUMN_TOTAL_MICROS)));
+    }
+
+    private static int getInt(Cursor cursor, String column) {
+        return cursor.getInt(cursor.getColumnIndex(column));
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void setSlowQueryThreshold(long millis) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mContext.getContentResolver().call(StatsEntry.CONTENT_URI,
+                StatsEntry.METHOD_SET_SLOW_QUERY_THRESHOLD, Long.toString(millis), null);
+    }
+
+    private ContentValues createDay(long date) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 12.5);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 21.5);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 60);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.4);
+        values.put(WeatherEntry.COLUMN_DEGREES, 270);
+        return values;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
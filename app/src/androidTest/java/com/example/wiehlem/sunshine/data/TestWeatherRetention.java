@@ -0,0 +1,101 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Purging of past forecast days and compaction of the database file.
+ */
+public class TestWeatherRetention extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherRetention.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "retention_test.db";
+    private static final long TODAY = 16282;
+
+    private WeatherDbHelper mOpenHelper;
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mOpenHelper = new WeatherDbHelper(mContext, TEST_DATABASE);
+        mDb = mOpenHelper.getWritableDatabase();
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_SETTING, "04103");
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Leipzig");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        mLocationId = mDb.insert(LocationEntry.TABLE_NAME, null, location);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mOpenHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    public void testPurgeKeepsDaysWithinHorizon() {
+        insertDays(TODAY - 10, TODAY + 6);
+
+        WeatherRetention retention = new WeatherRetention(mOpenHelper, 2);
+        // Smaller than the number of rows to delete, so it takes several batches.
+        retention.setBatchSize(3);
+        retention.setVacuumFreeRatio(1.0);
+        WeatherRetention.Report report = retention.run(TODAY);
+
+        assertEquals(8, report.deletedRows);
+        assertEquals(17, report.rowsBefore);
+        assertEquals(9, report.rowsAfter);
+        assertEquals(TODAY - 2, DatabaseUtils.longForQuery(mDb,
+                "SELECT MIN(" + WeatherEntry.COLUMN_DATE + ") FROM " + WeatherEntry.TABLE_NAME,
+                null));
+        assertFalse(report.vacuumed);
+    }
+
+    public void testPurgeWithNothingToDelete() {
+        insertDays(TODAY, TODAY + 6);
+
+        WeatherRetention.Report report = new WeatherRetention(mOpenHelper, 2).run(TODAY);
+        assertEquals(0, report.deletedRows);
+        assertEquals(7, report.rowsAfter);
+        assertFalse(report.vacuumed);
+    }
+
+    public void testCompactionShrinksFile() {
+        // Years of daily forecasts for a single location.
+        insertDays(TODAY - 20000, TODAY + 6);
+
+        WeatherRetention retention = new WeatherRetention(mOpenHelper, 2);
+        WeatherRetention.Report report = retention.run(TODAY);
+        Log.d(LOG_TAG, "Purging 20000 days: " + report);
+
+        assertEquals(19998, report.deletedRows);
+        assertTrue(report.vacuumed);
+        assertTrue(report.bytesAfter < report.bytesBefore / 10);
+        assertEquals(0, report.freeBytesAfter);
+    }
+
+    private void insertDays(long from, long to) {
+        mOpenHelper.beginWrite(mDb);
+        WeatherInserter inserter = new WeatherInserter(mDb);
+        try {
+            for (long date = from; date <= to; date++) {
+                inserter.insert(mLocationId, date, "Clear", 800, 12.5, 21.5, 60, 1013.2, 3.4, 270);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            mDb.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads of the forecast while a transaction is writing: with write-ahead logging they
+ * don't wait for it. The read latency during a large bulk insert, with write-ahead logging
+ * on and off, is logged.
+ */
+public class TestWriteAheadLogging extends AndroidTestCase {
+    public static final String LOG_TAG = TestWriteAheadLogging.class.getSimpleName();
+
+    private static final String TEST_DATABASE = "wal_test.db";
+    private static final int INGEST_ROWS = 50000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    public void testReadsDuringIngest() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        List<Long> withWal = measureReadLatencies(true);
+        mContext.deleteDatabase(TEST_DATABASE);
+        List<Long> withoutWal = measureReadLatencies(false);
+
+        long walMax = withWal.get(withWal.size() - 1);
+        long journalMax = withoutWal.get(withoutWal.size() - 1);
+        Log.d(LOG_TAG, String.format("Reads during a %d row insert: WAL %d reads, p50 %dms, " +
+                        "max %dms; rollback journal %d reads, p50 %dms, max %dms",
+                INGEST_ROWS, withWal.size(), median(withWal), walMax,
+                withoutWal.size(), median(withoutWal), journalMax));
+    }
+
+    public void testReadDoesNotWaitForWriter() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        final WeatherDbHelper helper = new WeatherDbHelper(mContext, TEST_DATABASE, true);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            final long locationId = insertLocation(db);
+            final CountDownLatch inTransaction = new CountDownLatch(1);
+            final CountDownLatch readDone = new CountDownLatch(1);
+            final AtomicBoolean writing = new AtomicBoolean();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    helper.beginWrite(db);
+                    WeatherInserter inserter = new WeatherInserter(db);
+                    try {
+                        for (int i = 0; i < 14; i++) {
+                            inserter.insert(locationId, i, "Clear", 800,
+                                    12.5, 21.5, 60, 1013.2, 3.4, 270);
+                        }
+                        writing.set(true);
+                        inTransaction.countDown();
+                        // Keep the transaction open until the read is done. Should the read
+                        // wait for the transaction instead, give up after a while.
+                        readDone.await(5, TimeUnit.SECONDS);
+                        db.setTransactionSuccessful();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        writing.set(false);
+                        inserter.close();
+                        db.endTransaction();
+                    }
+                }
+            });
+            writer.start();
+            assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+
+            WeatherProvider.QuerySpec spec = getForecastQuery();
+            Cursor cursor = db.rawQuery(spec.sql, spec.selectionArgs);
+            int rows = cursor.getCount();
+            cursor.close();
+            boolean finishedWhileWriting = writing.get();
+            readDone.countDown();
+            writer.join();
+
+            assertTrue("The read waited for the transaction", finishedWhileWriting);
+            // It sees the last committed state, none of the rows being written.
+            assertEquals(0, rows);
+        } finally {
+            helper.close();
+        }
+    }
+
+    public void testHelperReportsMode() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, TEST_DATABASE, false);
+        assertFalse(helper.isWriteAheadLogging());
+        helper.close();
+
+        helper = new WeatherDbHelper(mContext, TEST_DATABASE, true);
+        assertEquals(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB,
+                helper.isWriteAheadLogging());
+        helper.close();
+    }
+
+    /**
+     * @return the sorted latencies of the forecast queries run while the insert was writing
+     */
+    private List<Long> measureReadLatencies(boolean writeAheadLogging) throws Exception {
+        final WeatherDbHelper helper =
+                new WeatherDbHelper(mContext, TEST_DATABASE, writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            final long locationId = insertLocation(db);
+
+            final Object started = new Object();
+            final boolean[] writing = {false};
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    helper.beginWrite(db);
+                    WeatherInserter inserter = new WeatherInserter(db);
+                    try {
+                        synchronized (started) {
+                            writing[0] = true;
+                            started.notifyAll();
+                        }
+                        for (int i = 0; i < INGEST_ROWS; i++) {
+                            inserter.insert(locationId, i, "Clear", 800,
+                                    12.5, 21.5, 60, 1013.2, 3.4, 270);
+                        }
+                        db.setTransactionSuccessful();
+                    } finally {
+                        inserter.close();
+                        db.endTransaction();
+                    }
+                }
+            });
+            writer.start();
+            synchronized (started) {
+                while (!writing[0]) {
+                    started.wait();
+                }
+            }
+
+            WeatherProvider.QuerySpec spec = getForecastQuery();
+            List<Long> latencies = new ArrayList<Long>();
+            do {
+                long start = SystemClock.elapsedRealtime();
+                Cursor cursor = db.rawQuery(spec.sql, spec.selectionArgs);
+                cursor.getCount();
+                cursor.close();
+                latencies.add(SystemClock.elapsedRealtime() - start);
+            } while (writer.isAlive());
+            writer.join();
+
+            Collections.sort(latencies);
+            return latencies;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static long insertLocation(SQLiteDatabase db) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_SETTING, "04103");
+        location.put(LocationEntry.COLUMN_LOCATION_NAME, "Leipzig");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 51.3);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 12.4);
+        return db.insert(LocationEntry.TABLE_NAME, null, location);
+    }
+
+    /**
+     * The first two weeks of the location's forecast, as the list asks for them.
+     */
+    private static WeatherProvider.QuerySpec getForecastQuery() {
+        return WeatherProvider.buildQuery(
+                WeatherEntry.buildWeatherLocationWithStartDate("04103", 0), null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC LIMIT 14");
+    }
+
+    private static long median(List<Long> sorted) {
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Alarms don't survive a reboot, so the background sync is scheduled again once the device
+ * has booted.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            WeatherSyncService.schedule(context);
+        }
+    }
+}
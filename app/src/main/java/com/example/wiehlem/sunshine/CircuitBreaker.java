@@ -0,0 +1,118 @@
+package com.example.wiehlem.sunshine;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fails requests to an endpoint fast while it is unhealthy.
+ * <p/>
+ * After a number of consecutive failures the breaker opens and rejects every request. Once
+ * the open period is over a single trial request is let through: if it succeeds the breaker
+ * closes again, if it fails the breaker stays open for another period. Late successes of
+ * requests made before the breaker opened don't close it. A trial that never
+ * reports back is given up after an open period as well, and another one let through.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int STATE_HALF_OPEN = 2;
+
+    private static final ConcurrentMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    public static class OpenException extends IOException {
+        public OpenException(String endpoint) {
+            super("Circuit open for " + endpoint);
+        }
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    private int mState = STATE_CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private long mTrialStartedAt;
+
+    /**
+     * @return the breaker shared by everyone talking to the given endpoint
+     */
+    public static CircuitBreaker forEndpoint(String endpoint) {
+        CircuitBreaker breaker = sBreakers.get(endpoint);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+            breaker = sBreakers.putIfAbsent(endpoint, created);
+            if (breaker == null)
+                breaker = created;
+        }
+        return breaker;
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return whether a request may be made now. A true result in the half-open state makes
+     * the caller the trial request, which must report its outcome.
+     */
+    public synchronized boolean allowRequest() {
+        switch (mState) {
+            case STATE_OPEN:
+                if (SystemClock.elapsedRealtime() - mOpenedAt < mOpenMillis) {
+                    return false;
+                }
+                mState = STATE_HALF_OPEN;
+                mTrialStartedAt = SystemClock.elapsedRealtime();
+                return true;
+            case STATE_HALF_OPEN:
+                // A trial request is already in flight, unless it was lost without an outcome.
+                if (SystemClock.elapsedRealtime() - mTrialStartedAt < mOpenMillis) {
+                    return false;
+                }
+                mTrialStartedAt = SystemClock.elapsedRealtime();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        switch (mState) {
+            case STATE_HALF_OPEN:
+                mState = STATE_CLOSED;
+                mConsecutiveFailures = 0;
+                break;
+            case STATE_CLOSED:
+                mConsecutiveFailures = 0;
+                break;
+            default:
+                // A request let through before the breaker opened, it doesn't make the
+                // endpoint healthy again. Only the trial can close the breaker.
+                break;
+        }
+    }
+
+    public synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        if (mState == STATE_HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mOpenedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return mState != STATE_CLOSED;
+    }
+}
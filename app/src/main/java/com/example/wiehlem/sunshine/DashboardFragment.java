@@ -0,0 +1,119 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+import android.support.v4.widget.CursorAdapter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+import com.example.wiehlem.sunshine.data.WeatherContract;
+
+/**
+ * Today's forecast for every stored location, loaded with a single query of the dashboard
+ * uri rather than one per location.
+ */
+public class DashboardFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    private static final int DASHBOARD_LOADER = 0;
+
+    private DashboardAdapter mAdapter;
+    // The day shown, the list is loaded again once it is over.
+    private long mDate;
+    private boolean mMetric;
+
+    public DashboardFragment() {
+    }
+
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mDate = WeatherContract.getTodayEpochDay();
+        getLoaderManager().initLoader(DASHBOARD_LOADER, null, this);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View rootView = inflater.inflate(R.layout.fragment_dashboard, container, false);
+
+        mAdapter = new DashboardAdapter(getActivity());
+        ListView list = (ListView) rootView.findViewById(R.id.listview_dashboard);
+        list.setAdapter(mAdapter);
+
+        return rootView;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (WeatherContract.getTodayEpochDay() != mDate) {
+            mDate = WeatherContract.getTodayEpochDay();
+            getLoaderManager().restartLoader(DASHBOARD_LOADER, null, this);
+        } else if (mAdapter.getCursor() != null && Utility.isMetric(getActivity()) != mMetric) {
+            mMetric = !mMetric;
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new CursorLoader(getActivity(),
+                WeatherContract.DashboardEntry.buildDashboardUri(mDate),
+                Utility.DASHBOARD_COLUMNS,
+                null,
+                null,
+                null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mMetric = Utility.isMetric(getActivity());
+        mAdapter.swapCursor(data);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mAdapter.swapCursor(null);
+    }
+
+    /**
+     * A row per location in the layout of the forecast list: the location's name in place
+     * of the date.
+     */
+    private static class DashboardAdapter extends CursorAdapter {
+
+        DashboardAdapter(Context context) {
+            super(context, null, 0);
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            View view = LayoutInflater.from(context)
+                    .inflate(R.layout.list_item_forecast, parent, false);
+            view.setTag(new ForecastAdapter.ViewHolder(view));
+            return view;
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) {
+            ForecastAdapter.ViewHolder viewHolder = (ForecastAdapter.ViewHolder) view.getTag();
+            boolean isMetric = Utility.isMetric(context);
+
+            viewHolder.iconView.setImageResource(Utility.getIconResourceForWeatherCondition(
+                    cursor.getInt(Utility.COL_DASHBOARD_WEATHER_ID)));
+            viewHolder.dateView.setText(cursor.getString(Utility.COL_DASHBOARD_CITY_NAME));
+            viewHolder.descriptionView.setText(cursor.getString(Utility.COL_DASHBOARD_DESC));
+            viewHolder.highTempView.setText(Utility.formatTemperature(context,
+                    cursor.getDouble(Utility.COL_DASHBOARD_MAX_TEMP), isMetric));
+            viewHolder.lowTempView.setText(Utility.formatTemperature(context,
+                    cursor.getDouble(Utility.COL_DASHBOARD_MIN_TEMP), isMetric));
+        }
+    }
+}
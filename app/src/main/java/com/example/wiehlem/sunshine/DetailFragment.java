@@ -25,10 +25,15 @@ import com.example.wiehlem.sunshine.data.WeatherContract;
  */
 public class DetailFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    public static final String DATE_KEY = "forecast_date";
+
     private static final int DETAILS_LOADER = 1;
 
     private String mForecast;
-    private String mDate;
+    private long mDate;
+    // The loaded row and the units it was shown in, to re-bind it when the units change.
+    private Cursor mData;
+    private boolean mMetric;
     private ShareActionProvider provider;
     private TextView mDateTextView;
     private TextView mDescTextView;
@@ -73,8 +78,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         mWindTextView = (TextView) rootView.findViewById(R.id.detail_forecast_wind);
         mIcon = (ImageView) rootView.findViewById(R.id.detail_forecast_icon);
 
-        if (intent != null && intent.hasExtra(Intent.EXTRA_TEXT)) {
-            mDate = intent.getStringExtra(Intent.EXTRA_TEXT);
+        if (intent != null && intent.hasExtra(DATE_KEY)) {
+            mDate = intent.getLongExtra(DATE_KEY, 0);
         }
 
         return rootView;
@@ -102,10 +107,24 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 null);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (mData != null && Utility.isMetric(getActivity()) != mMetric) {
+            bindDetails(mData);
+        }
+    }
+
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mData = data;
+        bindDetails(data);
+    }
+
+    private void bindDetails(Cursor data) {
         if (data != null && data.moveToFirst()) {
             boolean isMetric = Utility.isMetric(getActivity());
+            mMetric = isMetric;
             String date = Utility.formatDate(mDate);
             String desc = data.getString(Utility.COL_WEATHER_DESC);
             String minTemp = Utility.formatTemperature(getActivity(), data.getDouble(Utility.COL_WEATHER_MIN_TEMP), isMetric);
@@ -129,6 +148,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        mData = null;
         getLoaderManager().restartLoader(DETAILS_LOADER, null, this);
     }
 }
\ No newline at end of file
@@ -50,8 +50,8 @@ public class ForecastAdapter extends CursorAdapter {
         viewHolder.iconView.setImageResource(resource);
 
         // Read date from cursor
-        String dateString = cursor.getString(Utility.COL_WEATHER_DATE);
-        viewHolder.dateView.setText(Utility.getFriendlyDayString(context, dateString));
+        long date = cursor.getLong(Utility.COL_WEATHER_DATE);
+        viewHolder.dateView.setText(Utility.getFriendlyDayString(context, date));
 
         // Read weather forecast from cursor
         String description = cursor.getString(Utility.COL_WEATHER_DESC);
@@ -2,6 +2,7 @@ package com.example.wiehlem.sunshine;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
@@ -9,20 +10,22 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SimpleCursorAdapter;
-import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.TextView;
 
 import com.example.wiehlem.sunshine.data.WeatherContract;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Created by wiehlem on 18.07.2014.
@@ -30,10 +33,18 @@ import java.util.Date;
 public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private String mLocation;
+    // Further pages of the forecast use the loader ids following this one.
     private static final int FORECAST_LOADER = 0;
 
+    // Days per page, 0 if the whole forecast is loaded at once.
+    private int mPageSize;
+    // The start date of every page requested so far and its cursor, null while loading.
+    private final List<Long> mPageStarts = new ArrayList<Long>();
+    private final List<Cursor> mPages = new ArrayList<Cursor>();
 
     private ForecastAdapter adapter;
+    // The units the list was bound in, it is re-bound from the same cursor when they change.
+    private boolean mMetric;
 
     public ForecastFragment() {
     }
@@ -41,6 +52,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
+        mPageSize = getResources().getInteger(R.integer.forecast_page_size);
+        // Pages loaded before a configuration change are loaded again while scrolling.
+        destroyFurtherPages();
+        mPageStarts.add(WeatherContract.getTodayEpochDay());
+        mPages.add(null);
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
     }
 
@@ -73,7 +89,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     private void updateWeather() {
         String location = Utility.getPreferredLocation(getActivity());
-        new FetchWeatherTask(getActivity()).execute(location);
+        FetchWeatherTask.refresh(getActivity(), location);
     }
 
     @Override
@@ -96,32 +112,100 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 if (adapter != null) {
                     Cursor cu = adapter.getCursor();
                     if (cu.moveToPosition(i)) {
-                        String date = cu.getString(Utility.COL_WEATHER_DATE);
-                        if (!TextUtils.isEmpty(date))
-                            startActivity(new Intent(getActivity(), DetailActivity.class).putExtra(Intent.EXTRA_TEXT, date));
+                        long date = cu.getLong(Utility.COL_WEATHER_DATE);
+                        startActivity(new Intent(getActivity(), DetailActivity.class).putExtra(DetailFragment.DATE_KEY, date));
                     }
                 }
             }
         });
 
+        list.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0 && firstVisibleItem + visibleItemCount >= totalItemCount - 1) {
+                    loadNextPage();
+                }
+            }
+        });
+
         return rootView;
     }
 
+    /**
+     * Load the page after the last one, unless that is still loading or was the last page.
+     * Pages are keyed by date: the next one starts the day after the last row loaded.
+     */
+    private void loadNextPage() {
+        if (mPageSize <= 0 || mPages.isEmpty()) {
+            return;
+        }
+        Cursor last = mPages.get(mPages.size() - 1);
+        if (last == null || last.getCount() < mPageSize || !last.moveToLast()) {
+            return;
+        }
+        mPageStarts.add(last.getLong(Utility.COL_WEATHER_DATE) + 1);
+        mPages.add(null);
+        getLoaderManager().initLoader(FORECAST_LOADER + mPages.size() - 1, null, this);
+    }
+
+    private void destroyFurtherPages() {
+        LoaderManager loaderManager = getLoaderManager();
+        for (int id = FORECAST_LOADER + 1; loaderManager.getLoader(id) != null; id++) {
+            loaderManager.destroyLoader(id);
+        }
+        mPageStarts.clear();
+        mPages.clear();
+    }
+
+    /**
+     * Show the loaded pages in order, up to the first one still loading.
+     */
+    private void showPages() {
+        List<Cursor> loaded = new ArrayList<Cursor>();
+        for (Cursor page : mPages) {
+            if (page == null) {
+                break;
+            }
+            loaded.add(page);
+        }
+        if (loaded.size() <= 1) {
+            adapter.swapCursor(loaded.isEmpty() ? null : loaded.get(0));
+        } else {
+            // The pages belong to their loaders, the merged cursor is never closed itself.
+            adapter.swapCursor(new MergeCursor(loaded.toArray(new Cursor[loaded.size()])));
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
-        if (mLocation != null && !Utility.getPreferredLocation(getActivity()).equals(mLocation))
+        if (mLocation != null && !Utility.getPreferredLocation(getActivity()).equals(mLocation)) {
+            destroyFurtherPages();
+            mPageStarts.add(WeatherContract.getTodayEpochDay());
+            mPages.add(null);
             getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        }
+        else if (adapter.getCursor() != null && Utility.isMetric(getActivity()) != mMetric) {
+            mMetric = !mMetric;
+            adapter.notifyDataSetChanged();
+        }
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String startDate = WeatherContract.getDbDateString(new Date());
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATETEXT + " ASC";
+        long startDate = mPageStarts.get(id - FORECAST_LOADER);
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         mLocation = Utility.getPreferredLocation(getActivity());
 
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(mLocation, startDate);
+        Uri weatherUri = mPageSize > 0
+                ? WeatherContract.WeatherEntry.buildWeatherLocationPage(mLocation, startDate, mPageSize)
+                : WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(mLocation, startDate);
 
         return new CursorLoader(getActivity(),
                 weatherUri,
@@ -133,11 +217,21 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        adapter.swapCursor(data);
+        int page = loader.getId() - FORECAST_LOADER;
+        if (page >= mPages.size()) {
+            return;
+        }
+        mMetric = Utility.isMetric(getActivity());
+        mPages.set(page, data);
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        adapter.swapCursor(null);
+        int page = loader.getId() - FORECAST_LOADER;
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+        }
+        showPages();
     }
 }
@@ -0,0 +1,278 @@
+package com.example.wiehlem.sunshine;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.wiehlem.sunshine.data.WeatherContract;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Turns the OpenWeatherMap forecast/daily response into weather rows.
+ * <p/>
+ * {@link #parseTree(String)} builds the complete org.json object hierarchy before pulling out
+ * the fields, {@link #parseStream(Reader)} reads them straight off the stream and creates one
+ * row per day as it goes. Both produce exactly the same rows.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_COORD_LAT = "lat";
+    private static final String OWM_COORD_LONG = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_DATETIME = "dt";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    /**
+     * The parsed response. The weather rows don't carry a location id yet, since the location
+     * has to be looked up (or inserted) with the city information first.
+     */
+    public static class Forecast {
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final List<ContentValues> days = new ArrayList<ContentValues>();
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need.
+     */
+    public static Forecast parseTree(String forecastJsonStr) throws JSONException {
+        Forecast forecast = new Forecast();
+
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+        JSONObject coordJSON = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = coordJSON.getLong(OWM_COORD_LAT);
+        forecast.cityLongitude = coordJSON.getLong(OWM_COORD_LONG);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            forecast.days.add(createWeatherValues(
+                    dayForecast.getLong(OWM_DATETIME),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID)));
+        }
+        return forecast;
+    }
+
+    /**
+     * Pull the forecast off the given reader without building an object tree. The reader is
+     * consumed but not closed.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parseStream(Reader in) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        JsonReader reader = new JsonReader(in);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    forecast.days.add(readDay(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coord = reader.nextName();
+                    // The tree parser reads the coordinates with getLong(), keep it that way
+                    // so both modes store the same location rows.
+                    if (OWM_COORD_LAT.equals(coord)) {
+                        forecast.cityLatitude = (long) reader.nextDouble();
+                    } else if (OWM_COORD_LONG.equals(coord)) {
+                        forecast.cityLongitude = (long) reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Every field the tree parser reads is required here as well, a day missing one fails
+     * the parse instead of being stored with zeros.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDay(JsonReader reader) throws IOException, JSONException {
+        Long dateTime = null;
+        Double pressure = null;
+        Integer humidity = null;
+        Double windSpeed = null;
+        Double windDirection = null;
+        Double high = null;
+        Double low = null;
+        String description = null;
+        Integer weatherId = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DATETIME.equals(name)) {
+                dateTime = reader.nextLong();
+            } else if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperature = reader.nextName();
+                    if (OWM_MAX.equals(temperature)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperature)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array is used.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weather = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weather)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weather)) {
+                            weatherId = (int) reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return createWeatherValues(require(dateTime, OWM_DATETIME),
+                require(pressure, OWM_PRESSURE), require(humidity, OWM_HUMIDITY),
+                require(windSpeed, OWM_WINDSPEED), require(windDirection, OWM_WIND_DIRECTION),
+                require(high, OWM_MAX), require(low, OWM_MIN),
+                require(description, OWM_DESCRIPTION), require(weatherId, OWM_WEATHER_ID));
+    }
+
+    /**
+     * @throws JSONException like org.json's getters if the field was missing
+     */
+    private static <T> T require(T value, String name) throws JSONException {
+        if (value == null) {
+            throw new JSONException("No value for " + name);
+        }
+        return value;
+    }
+
+    private static ContentValues createWeatherValues(long dateTime, double pressure, int humidity,
+                                                     double windSpeed, double windDirection,
+                                                     double high, double low,
+                                                     String description, int weatherId) {
+        ContentValues weatherValues = new ContentValues();
+
+        // The date/time is returned as a unix timestamp (measured in seconds).
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.getEpochDay(new Date(dateTime * 1000L)));
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        return weatherValues;
+    }
+}
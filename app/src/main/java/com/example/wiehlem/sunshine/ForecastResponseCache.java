@@ -0,0 +1,179 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of the validators (ETag / Last-Modified) of the last forecast response that
+ * was stored for a location query. They are sent back as If-None-Match / If-Modified-Since,
+ * so an unchanged forecast comes back as a body-less 304.
+ * <p/>
+ * The body itself isn't kept: a 304 means the rows are already in the database. The cache
+ * is bounded in bytes, the least recently used entries are evicted first.
+ */
+public class ForecastResponseCache {
+
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "forecast_responses";
+    private static final long DEFAULT_MAX_SIZE = 32 * 1024;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIR),
+                    DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    public ForecastResponseCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Turn the request into a conditional one if there is a cached entry for the key.
+     * Must be called before the connection is connected.
+     */
+    public synchronized void addValidators(HttpURLConnection connection, String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            String eTag = in.readUTF();
+            String lastModified = in.readUTF();
+            if (eTag.length() > 0) {
+                connection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+            }
+            if (lastModified.length() > 0) {
+                connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+            // The modification time doubles as the access time for eviction.
+            file.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry for " + key, e);
+            file.delete();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Remember the validators of a response whose data has been stored. Responses without
+     * any validator remove the entry.
+     */
+    public synchronized void put(String key, String eTag, String lastModified) {
+        if (eTag == null && lastModified == null) {
+            remove(key);
+            return;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Can't create " + mDirectory);
+            return;
+        }
+        File file = fileFor(key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(file));
+            out.writeUTF(eTag != null ? eTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write cache entry for " + key, e);
+            file.delete();
+        } finally {
+            closeQuietly(out);
+        }
+        trimToSize();
+    }
+
+    public synchronized void remove(String key) {
+        fileFor(key).delete();
+    }
+
+    public static String getETag(HttpURLConnection connection) {
+        return connection.getHeaderField(HEADER_ETAG);
+    }
+
+    public static String getLastModified(HttpURLConnection connection) {
+        return connection.getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSize) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > mMaxSize; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private File fileFor(String key) {
+        // Location queries are free-form user input, hash them into a safe file name.
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps location settings to the row ids of their locations, so storing a forecast doesn't
+ * have to ask the provider for the location every time.
+ * <p/>
+ * A miss costs a single provider call, an upsert that returns the stored row or inserts a
+ * new one in one transaction, so concurrent refreshes never create the same location twice.
+ * The most recently used ids are kept in memory. Since a cached id could point to a row that
+ * was deleted or given another setting meanwhile, the cache is dropped whenever a location
+ * changes. The observer runs asynchronously, so writers don't rely on a cached id alone: a
+ * refresh upserts its location in the same transaction as its rows. Recording the sync time
+ * notifies nobody and keeps the cache.
+ */
+public class LocationResolver {
+
+    private static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static LocationResolver sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Long> mIds;
+    private final ContentObserver mObserver;
+    private final AtomicInteger mProviderCalls = new AtomicInteger();
+
+    public static synchronized LocationResolver getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationResolver(context, DEFAULT_MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+
+    public LocationResolver(Context context, int maxEntries) {
+        mContext = context.getApplicationContext();
+        mIds = new LruCache<String, Long>(maxEntries);
+        mObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mIds.evictAll();
+            }
+        };
+        mContext.getContentResolver()
+                .registerContentObserver(LocationEntry.CONTENT_URI, true, mObserver);
+    }
+
+    /**
+     * @return the row id of the location with this setting, inserting it with the given
+     * name and coordinates if it isn't stored yet
+     */
+    public long resolve(String locationSetting, String cityName, double lat, double lon) {
+        Long cached = mIds.get(locationSetting);
+        if (cached != null) {
+            return cached;
+        }
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_NAME, cityName);
+        values.put(LocationEntry.COLUMN_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        mProviderCalls.incrementAndGet();
+        Uri rowUri = mContext.getContentResolver().insert(LocationEntry.buildUpsertUri(), values);
+        long id = ContentUris.parseId(rowUri);
+        mIds.put(locationSetting, id);
+        return id;
+    }
+
+    /**
+     * @return the cached row id of the location, or -1 if it isn't cached
+     */
+    public long getCachedId(String locationSetting) {
+        Long cached = mIds.get(locationSetting);
+        return cached != null ? cached : -1;
+    }
+
+    /**
+     * Cache the id of a location that was stored by other means, e.g. in a batch.
+     */
+    public void remember(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    /**
+     * Drop the cached id of a location found to be gone.
+     */
+    public void forget(String locationSetting) {
+        mIds.remove(locationSetting);
+    }
+
+    public void invalidate() {
+        mIds.evictAll();
+    }
+
+    /**
+     * @return how many lookups missed the cache and went to the provider
+     */
+    public int getProviderCalls() {
+        return mProviderCalls.get();
+    }
+
+    /**
+     * Stop watching the location table. Only for resolvers that aren't the shared instance.
+     */
+    public void close() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.wiehlem.sunshine;
 
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.Preference;
@@ -8,8 +7,6 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.view.KeyEvent;
 
-import com.example.wiehlem.sunshine.data.WeatherContract;
-
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p/>
@@ -34,6 +31,7 @@ public class SettingsActivity extends PreferenceActivity
         // updated when the preference changes.
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_temperature_unit_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_sync_interval_key)));
     }
 
     /**
@@ -62,13 +60,14 @@ public class SettingsActivity extends PreferenceActivity
 
         if (!mBindingPreference) {
             if (preference.getKey().equals(getString(R.string.pref_location_key))) {
-                FetchWeatherTask weatherTask = new FetchWeatherTask(this);
                 String location = value.toString();
-                weatherTask.execute(location);
-            } else {
-                // notify code that weather may be impacted
-                getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+                FetchWeatherTask.refresh(this, location);
+            } else if (preference.getKey().equals(getString(R.string.pref_sync_interval_key))) {
+                // The new value isn't saved yet, hand it over directly.
+                WeatherSyncService.schedule(this, Long.parseLong(stringValue) * 60 * 1000);
             }
+            // A change of units needs no notification, nothing stored changes. The forecast
+            // list and detail view re-bind their cursors when they resume.
         }
 
         if (preference instanceof ListPreference) {
@@ -0,0 +1,54 @@
+package com.example.wiehlem.sunshine;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs at most one call per key at a time. A caller arriving while a call for the same key
+ * is in flight waits for that call and gets its result instead of starting its own.
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentMap<String, FutureTask<V>> mInFlight =
+            new ConcurrentHashMap<String, FutureTask<V>>();
+    private final AtomicInteger mDuplicatesAvoided = new AtomicInteger();
+
+    public V run(String key, Callable<V> call) throws Exception {
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight != null) {
+            mDuplicatesAvoided.incrementAndGet();
+            return await(inFlight);
+        }
+        try {
+            task.run();
+        } finally {
+            mInFlight.remove(key, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * @return how many calls joined one already in flight instead of running themselves
+     */
+    public int getDuplicatesAvoided() {
+        return mDuplicatesAvoided.get();
+    }
+
+    private static <V> V await(FutureTask<V> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+}
@@ -1,16 +1,11 @@
 package com.example.wiehlem.sunshine;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
 
 import com.example.wiehlem.sunshine.data.WeatherContract;
 
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * Created by wiehlem on 07.08.2014.
@@ -28,7 +23,7 @@ public class Utility {
     public static final int COL_WEATHER_HUMIDITY = 7;
     static final String[] FORECAST_COLUMNS = new String[]{
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATETEXT,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
@@ -38,7 +33,7 @@ public class Utility {
 
     static final String[] DETAILS_COLUMNS = new String[]{
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-            WeatherContract.WeatherEntry.COLUMN_DATETEXT,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
             WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
@@ -50,17 +45,28 @@ public class Utility {
             WeatherContract.WeatherEntry.COLUMN_DEGREES
     };
 
+    public static final int COL_DASHBOARD_SETTING = 1;
+    public static final int COL_DASHBOARD_CITY_NAME = 2;
+    public static final int COL_DASHBOARD_DESC = 3;
+    public static final int COL_DASHBOARD_MAX_TEMP = 4;
+    public static final int COL_DASHBOARD_MIN_TEMP = 5;
+    public static final int COL_DASHBOARD_WEATHER_ID = 6;
+    static final String[] DASHBOARD_COLUMNS = new String[]{
+            WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_SETTING,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_NAME,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return WeatherSettings.get(context).locationSetting;
     }
 
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_temperature_unit_key),
-                context.getString(R.string.pref_temperature_unit_default))
-                .equals(context.getString(R.string.pref_temperature_unit_default));
+        return WeatherSettings.get(context).isMetric;
     }
 
     static String formatTemperature(Context context, double temperature, boolean isMetric) {
@@ -73,57 +79,41 @@ public class Utility {
         return context.getString(R.string.format_temperature, temp);
     }
 
-    static String formatDate(String dateString) {
-        Date date = WeatherContract.getDateFromDb(dateString);
-        return DateFormat.getDateInstance().format(date);
+    static String formatDate(long epochDay) {
+        return DateFormat.getDateInstance().format(WeatherContract.getDateFromEpochDay(epochDay));
     }
 
-    // Format used for storing dates in the database.  ALso used for converting those strings
-// back into date objects for comparison/processing.
-    public static final String DATE_FORMAT = "yyyyMMdd";
-
     /**
      * Helper method to convert the database representation of the date into something to display
-     * to users.  As classy and polished a user experience as "20140102" is, we can do better.
+     * to users.  As classy and polished a user experience as "16073" is, we can do better.
      *
-     * @param context Context to use for resource localization
-     * @param dateStr The db formatted date string, expected to be of the form specified
-     *                in Utility.DATE_FORMAT
+     * @param context  Context to use for resource localization
+     * @param epochDay The date as stored in the database, see WeatherContract.getEpochDay()
      * @return a user-friendly representation of the date.
      */
-    public static String getFriendlyDayString(Context context, String dateStr) {
+    public static String getFriendlyDayString(Context context, long epochDay) {
         // The day string for forecast uses the following logic:
         // For today: "Today, June 8"
         // For tomorrow:  "Tomorrow"
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Date todayDate = new Date();
-        String todayStr = WeatherContract.getDbDateString(todayDate);
-        Date inputDate = WeatherContract.getDateFromDb(dateStr);
+        long today = WeatherContract.getTodayEpochDay();
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
-        if (todayStr.equals(dateStr)) {
-            String today = context.getString(R.string.today);
+        if (epochDay == today) {
             return context.getString(
                     R.string.format_full_friendly_date,
-                    today,
-                    getFormattedMonthDay(context, dateStr));
+                    context.getString(R.string.today),
+                    getFormattedMonthDay(context, epochDay));
+        } else if (epochDay < today + 7) {
+            // If the input date is less than a week in the future, just return the day name.
+            return getDayName(context, epochDay);
         } else {
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(todayDate);
-            cal.add(Calendar.DATE, 7);
-            String weekFutureString = WeatherContract.getDbDateString(cal.getTime());
-
-            if (dateStr.compareTo(weekFutureString) < 0) {
-                // If the input date is less than a week in the future, just return the day name.
-                return getDayName(context, dateStr);
-            } else {
-                // Otherwise, use the form "Mon Jun 3"
-                SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-                return shortenedDateFormat.format(inputDate);
-            }
+            // Otherwise, use the form "Mon Jun 3"
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(WeatherContract.getDateFromEpochDay(epochDay));
         }
     }
 
@@ -131,60 +121,35 @@ public class Utility {
      * Given a day, returns just the name to use for that day.
      * E.g "today", "tomorrow", "wednesday".
      *
-     * @param context Context to use for resource localization
-     * @param dateStr The db formatted date string, expected to be of the form specified
-     *                in Utility.DATE_FORMAT
+     * @param context  Context to use for resource localization
+     * @param epochDay The date as stored in the database, see WeatherContract.getEpochDay()
      * @return
      */
-    public static String getDayName(Context context, String dateStr) {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        try {
-            Date inputDate = dbDateFormat.parse(dateStr);
-            Date todayDate = new Date();
-            // If the date is today, return the localized version of "Today" instead of the actual
-            // day name.
-            if (WeatherContract.getDbDateString(todayDate).equals(dateStr)) {
-                return context.getString(R.string.today);
-            } else {
-                // If the date is set for tomorrow, the format is "Tomorrow".
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(todayDate);
-                cal.add(Calendar.DATE, 1);
-                Date tomorrowDate = cal.getTime();
-                if (WeatherContract.getDbDateString(tomorrowDate).equals(
-                        dateStr)) {
-                    return context.getString(R.string.tomorrow);
-                } else {
-                    // Otherwise, the format is just the day of the week (e.g "Wednesday".
-                    SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-                    return dayFormat.format(inputDate);
-                }
-            }
-        } catch (ParseException e) {
-            e.printStackTrace();
-            // It couldn't process the date correctly.
-            return "";
+    public static String getDayName(Context context, long epochDay) {
+        long today = WeatherContract.getTodayEpochDay();
+        // If the date is today, return the localized version of "Today" instead of the actual
+        // day name.
+        if (epochDay == today) {
+            return context.getString(R.string.today);
+        } else if (epochDay == today + 1) {
+            // If the date is set for tomorrow, the format is "Tomorrow".
+            return context.getString(R.string.tomorrow);
+        } else {
+            // Otherwise, the format is just the day of the week (e.g "Wednesday".
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(WeatherContract.getDateFromEpochDay(epochDay));
         }
     }
 
     /**
      * Converts db date format to the format "Month day", e.g "June 24".
-     * @param context Context to use for resource localization
-     * @param dateStr The db formatted date string, expected to be of the form specified
-     *                in Utility.DATE_FORMAT
+     * @param context  Context to use for resource localization
+     * @param epochDay The date as stored in the database, see WeatherContract.getEpochDay()
      * @return The day in the form of a string formatted "December 6"
      */
-    public static String getFormattedMonthDay(Context context, String dateStr) {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        try {
-            Date inputDate = dbDateFormat.parse(dateStr);
-            SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-            String monthDayString = monthDayFormat.format(inputDate);
-            return monthDayString;
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return null;
-        }
+    public static String getFormattedMonthDay(Context context, long epochDay) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(WeatherContract.getDateFromEpochDay(epochDay));
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
@@ -0,0 +1,130 @@
+package com.example.wiehlem.sunshine;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches several locations in parallel, with at most a fixed number of fetches in flight.
+ * Every worker streams and parses its own response, so parsing one location overlaps with
+ * the network I/O of the others. A failing location doesn't affect the rest.
+ */
+public class WeatherFetchEngine {
+
+    private static final String LOG_TAG = WeatherFetchEngine.class.getSimpleName();
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Per-location results, in the order the locations were given, and the wall-clock time
+     * of the whole batch.
+     */
+    public static class Report {
+        public final List<WeatherFetcher.Result> results;
+        public final long elapsedMillis;
+
+        Report(List<WeatherFetcher.Result> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getFailureCount() {
+            int failures = 0;
+            for (WeatherFetcher.Result result : results) {
+                if (!result.isSuccess())
+                    failures++;
+            }
+            return failures;
+        }
+    }
+
+    private final WeatherFetcher mFetcher;
+    private final int mConcurrency;
+
+    public WeatherFetchEngine(WeatherFetcher fetcher) {
+        this(fetcher, DEFAULT_CONCURRENCY);
+    }
+
+    public WeatherFetchEngine(WeatherFetcher fetcher, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1: " + concurrency);
+        }
+        mFetcher = fetcher;
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * Fetch all the given location settings, blocking until every one of them is done.
+     */
+    public Report fetchAll(List<String> locationSettings) {
+        long start = SystemClock.elapsedRealtime();
+        List<WeatherFetcher.Result> results =
+                new ArrayList<WeatherFetcher.Result>(locationSettings.size());
+        if (locationSettings.isEmpty()) {
+            return new Report(results, 0);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(mConcurrency, locationSettings.size()), new WorkerThreadFactory());
+        try {
+            List<Future<WeatherFetcher.Result>> futures =
+                    new ArrayList<Future<WeatherFetcher.Result>>(locationSettings.size());
+            for (final String location : locationSettings) {
+                futures.add(executor.submit(new Callable<WeatherFetcher.Result>() {
+                    @Override
+                    public WeatherFetcher.Result call() {
+                        return mFetcher.fetch(location);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(await(locationSettings.get(i), futures.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.v(LOG_TAG, "Fetched " + locationSettings.size() + " locations in " + elapsed + "ms");
+        return new Report(results, elapsed);
+    }
+
+    private static WeatherFetcher.Result await(String location,
+                                               Future<WeatherFetcher.Result> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // fetch() doesn't throw, but keep one location's failure contained regardless.
+            Exception cause = e.getCause() instanceof Exception
+                    ? (Exception) e.getCause() : e;
+            return new WeatherFetcher.Result(location, WeatherFetcher.Result.STATUS_FAILED,
+                    0, cause, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new WeatherFetcher.Result(location, WeatherFetcher.Result.STATUS_FAILED,
+                    0, e, 0);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "WeatherFetch #" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract;
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Fetches the forecast for one location setting and stores it, synchronously on the
+ * calling thread. Used by {@link FetchWeatherTask} and {@link WeatherFetchEngine}.
+ */
+public class WeatherFetcher {
+
+    private static final String LOG_TAG = WeatherFetcher.class.getSimpleName();
+
+    // android.util.JsonReader is only available from Honeycomb on, older devices keep
+    // parsing the buffered response into a JSONObject tree.
+    private static final boolean USE_STREAMING_PARSER =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    /**
+     * Outcome of fetching a single location.
+     */
+    public static class Result {
+        public static final int STATUS_UPDATED = 0;
+        public static final int STATUS_NOT_MODIFIED = 1;
+        public static final int STATUS_FAILED = 2;
+
+        public final String locationSetting;
+        public final int status;
+        // Weather rows written, the inserted plus the updated ones.
+        public final int rowCount;
+        public final int insertedCount;
+        public final int updatedCount;
+        // Days that were fetched but identical to the stored ones, so not written.
+        public final int unchangedCount;
+        public final Exception error;
+        public final long elapsedMillis;
+
+        public Result(String locationSetting, int status, int rowCount, Exception error,
+                      long elapsedMillis) {
+            this(locationSetting, status, rowCount, 0, 0, error, elapsedMillis);
+        }
+
+        public Result(String locationSetting, int status, int insertedCount, int updatedCount,
+                      int unchangedCount, Exception error, long elapsedMillis) {
+            this.locationSetting = locationSetting;
+            this.status = status;
+            this.rowCount = insertedCount + updatedCount;
+            this.insertedCount = insertedCount;
+            this.updatedCount = updatedCount;
+            this.unchangedCount = unchangedCount;
+            this.error = error;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public boolean isSuccess() {
+            return status != STATUS_FAILED;
+        }
+
+        @Override
+        public String toString() {
+            String state = status == STATUS_UPDATED ? "inserted " + insertedCount + ", updated "
+                    + updatedCount + ", unchanged " + unchangedCount + " rows"
+                    : status == STATUS_NOT_MODIFIED ? "not modified"
+                    : "failed: " + error;
+            return locationSetting + " " + state + " in " + elapsedMillis + "ms";
+        }
+    }
+
+    // Refreshes of the same location setting from the same endpoint share one fetch while it
+    // is in flight. Keyed by endpoint like the circuit breakers, so a fetcher pointing
+    // elsewhere never joins a flight with another server's forecast.
+    private static final ConcurrentMap<String, SingleFlight<Result>> sRefreshes =
+            new ConcurrentHashMap<String, SingleFlight<Result>>();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String DEFAULT_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 8 * 1000;
+
+    private static final Random sJitter = new Random();
+
+    /**
+     * A response with a status other than 200 or 304.
+     */
+    public static class HttpStatusException extends IOException {
+        public final int statusCode;
+
+        public HttpStatusException(int statusCode, String locationQuery) {
+            super("HTTP " + statusCode + " for " + locationQuery);
+            this.statusCode = statusCode;
+        }
+    }
+
+    private static class Download {
+        ForecastJsonParser.Forecast forecast;
+        String eTag;
+        String lastModified;
+    }
+
+    private final Context mContext;
+    private final String mForecastBaseUrl;
+    private final LocationResolver mLocations;
+
+    private int mConnectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int mReadTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mBaseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private final SingleFlight<Result> mRefreshes;
+    private CircuitBreaker mCircuitBreaker;
+
+    public WeatherFetcher(Context context) {
+        this(context, DEFAULT_FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param forecastBaseUrl the forecast/daily endpoint to query, e.g. a local stub server
+     */
+    public WeatherFetcher(Context context, String forecastBaseUrl) {
+        mContext = context.getApplicationContext();
+        mForecastBaseUrl = forecastBaseUrl;
+        mLocations = LocationResolver.getInstance(mContext);
+        mCircuitBreaker = CircuitBreaker.forEndpoint(forecastBaseUrl);
+        mRefreshes = refreshesFor(forecastBaseUrl);
+    }
+
+    private static SingleFlight<Result> refreshesFor(String forecastBaseUrl) {
+        SingleFlight<Result> refreshes = sRefreshes.get(forecastBaseUrl);
+        if (refreshes == null) {
+            SingleFlight<Result> created = new SingleFlight<Result>();
+            refreshes = sRefreshes.putIfAbsent(forecastBaseUrl, created);
+            if (refreshes == null)
+                refreshes = created;
+        }
+        return refreshes;
+    }
+
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param maxAttempts      attempts per fetch including the first one, 1 disables retries
+     * @param baseBackoffMillis cap of the delay before the first retry, doubled for every
+     *                          further one
+     * @param maxBackoffMillis  upper bound of the delay cap
+     */
+    public void setRetries(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis) {
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mBaseBackoffMillis = baseBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Use the given breaker instead of the one shared by all fetchers of this endpoint.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Fetch and store the forecast for the location setting. Never throws, a failure is
+     * reported in the result. If the same location is already being fetched from the same
+     * endpoint, this waits for that fetch and returns its result.
+     */
+    public Result fetch(final String locationQuery) {
+        try {
+            return mRefreshes.run(locationQuery, new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return fetchOnce(locationQuery);
+                }
+            });
+        } catch (Exception e) {
+            // Only reachable if the waiting thread is interrupted.
+            return new Result(locationQuery, Result.STATUS_FAILED, 0, e, 0);
+        }
+    }
+
+    /**
+     * @return how many refreshes joined a fetch of the same location from this fetcher's
+     * endpoint already in flight
+     */
+    public int getDuplicateFetchesAvoided() {
+        return mRefreshes.getDuplicatesAvoided();
+    }
+
+    private Result fetchOnce(String locationQuery) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            int[] counts = fetchAndStore(locationQuery);
+            if (counts == null) {
+                return new Result(locationQuery, Result.STATUS_NOT_MODIFIED, 0, null,
+                        SystemClock.elapsedRealtime() - start);
+            }
+            return new Result(locationQuery, Result.STATUS_UPDATED,
+                    counts[0], counts[1], counts[2], null, SystemClock.elapsedRealtime() - start);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Error fetching forecast for " + locationQuery, e);
+            return new Result(locationQuery, Result.STATUS_FAILED, 0, e,
+                    SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    /**
+     * @return the number of weather rows inserted, updated and left unchanged, or null if
+     * the forecast wasn't modified
+     */
+    private int[] fetchAndStore(String locationQuery) throws IOException, JSONException,
+            RemoteException, OperationApplicationException {
+        Download download = downloadWithRetries(locationQuery);
+        if (download == null) {
+            // The stored forecast is still current, no need to parse or write anything.
+            Log.v(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+            markSynced(locationQuery);
+            return null;
+        }
+
+        int[] counts = storeForecast(download.forecast, locationQuery);
+        // Only remember the validators once the rows are stored, a 304 skips the write.
+        ForecastResponseCache.getInstance(mContext)
+                .put(locationQuery, download.eTag, download.lastModified);
+        markSynced(locationQuery);
+        return counts;
+    }
+
+    /**
+     * @return whether the location has weather rows stored for today or later, which a 304
+     * would keep showing
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationPage(locationSetting,
+                        WeatherContract.getTodayEpochDay(), 1),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Record the time of the last successful sync, which {@link WeatherSyncService} uses to
+     * tell stale locations from fresh ones.
+     */
+    private void markSynced(String locationSetting) {
+        long locationId = mLocations.getCachedId(locationSetting);
+        if (locationId < 0) {
+            locationId = findLocationId(locationSetting);
+            if (locationId < 0) {
+                // Deleted meanwhile, there is nothing to record the sync on.
+                return;
+            }
+            mLocations.remember(locationSetting, locationId);
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNC, System.currentTimeMillis());
+        // Updating the row through its own uri keeps the cached location ids.
+        int updated = mContext.getContentResolver().update(
+                WeatherContract.LocationEntry.buildLocationUri(locationId), values, null, null);
+        if (updated == 0) {
+            // The cached id was of a deleted location, the cache hasn't heard of it yet.
+            mLocations.forget(locationSetting);
+            locationId = findLocationId(locationSetting);
+            if (locationId >= 0) {
+                mLocations.remember(locationSetting, locationId);
+                mContext.getContentResolver().update(
+                        WeatherContract.LocationEntry.buildLocationUri(locationId), values,
+                        null, null);
+            }
+        }
+    }
+
+    /**
+     * @return the row id of the stored location with this setting, or -1 if there is none
+     */
+    private long findLocationId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Download the forecast, retrying transient failures with jittered exponential backoff.
+     * Nothing is attempted while the endpoint's circuit breaker is open.
+     */
+    private Download downloadWithRetries(String locationQuery) throws IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            if (!mCircuitBreaker.allowRequest()) {
+                throw new CircuitBreaker.OpenException(mForecastBaseUrl);
+            }
+            // Every attempt reports an outcome, or a half-open breaker would wait for it.
+            boolean recorded = false;
+            try {
+                Download download = download(locationQuery);
+                mCircuitBreaker.recordSuccess();
+                recorded = true;
+                return download;
+            } catch (IOException e) {
+                if (!isRetryable(e)) {
+                    // The server answered, it just didn't like the request.
+                    mCircuitBreaker.recordSuccess();
+                    recorded = true;
+                    throw e;
+                }
+                mCircuitBreaker.recordFailure();
+                recorded = true;
+                if (attempt >= mMaxAttempts) {
+                    throw e;
+                }
+                long delay = backoffMillis(attempt);
+                Log.w(LOG_TAG, "Attempt " + attempt + " for " + locationQuery + " failed ("
+                        + e.getMessage() + "), retrying in " + delay + "ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while backing off");
+                }
+            } catch (JSONException e) {
+                mCircuitBreaker.recordSuccess();
+                recorded = true;
+                throw e;
+            } catch (RuntimeException e) {
+                // JsonReader reports malformed numbers as NumberFormatException and
+                // unexpected tokens as IllegalStateException.
+                mCircuitBreaker.recordSuccess();
+                recorded = true;
+                throw e;
+            } finally {
+                if (!recorded) {
+                    // An Error such as OutOfMemoryError while reading the response.
+                    mCircuitBreaker.recordFailure();
+                }
+            }
+        }
+    }
+
+    /**
+     * Full jitter: a random delay between 0 and the exponentially growing cap.
+     */
+    private long backoffMillis(int attempt) {
+        long cap = Math.min(mMaxBackoffMillis, mBaseBackoffMillis << Math.min(attempt - 1, 16));
+        return (long) (sJitter.nextDouble() * cap);
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).statusCode;
+            return statusCode >= 500 || statusCode == 429;
+        }
+        // Timeouts, refused or reset connections and truncated bodies.
+        return true;
+    }
+
+    /**
+     * @return the parsed forecast, or null if the server reported it as not modified
+     */
+    private Download download(String locationQuery) throws IOException, JSONException {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        BufferedReader reader = null;
+
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            final String QUERY_PARAM = "q";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String DAYS_PARAM = "cnt";
+
+            Uri builtUri = Uri.parse(mForecastBaseUrl).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+                    .appendQueryParameter(FORMAT_PARAM, format)
+                    .appendQueryParameter(UNITS_PARAM, units)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            urlConnection.setRequestMethod("GET");
+            ForecastResponseCache responseCache = ForecastResponseCache.getInstance(mContext);
+            if (hasStoredForecast(locationQuery)) {
+                responseCache.addValidators(urlConnection, locationQuery);
+            } else {
+                // A 304 would leave nothing to show once the rows have been deleted.
+                responseCache.remove(locationQuery);
+            }
+            urlConnection.connect();
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(responseCode, locationQuery);
+            }
+
+            Download download = new Download();
+            download.eTag = ForecastResponseCache.getETag(urlConnection);
+            download.lastModified = ForecastResponseCache.getLastModified(urlConnection);
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                throw new IOException("No response body for " + locationQuery);
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream));
+
+            if (USE_STREAMING_PARSER) {
+                // Parse the days straight off the connection, the response is never
+                // held in memory as a whole.
+                download.forecast = ForecastJsonParser.parseStream(reader);
+            } else {
+                // Read the input stream into a String
+                StringBuilder buffer = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                    // But it does make debugging a *lot* easier if you print out the completed
+                    // buffer for debugging.
+                    buffer.append(line).append('\n');
+                }
+
+                if (buffer.length() == 0) {
+                    throw new IOException("Empty response for " + locationQuery);
+                }
+                download.forecast = ForecastJsonParser.parseTree(buffer.toString());
+            }
+            return download;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the parsed forecast: the location and the weather rows for it in one batch, which
+     * the provider commits in a single transaction. The location is always upserted rather
+     * than taken from the cache, so the rows can't end up under the id of a location that
+     * was deleted meanwhile; the provider finds stored locations without a query. The rows
+     * are upserted, so days that didn't change since the last fetch aren't rewritten.
+     *
+     * @return the number of weather rows inserted, updated and left unchanged
+     */
+    private int[] storeForecast(ForecastJsonParser.Forecast forecast, String locationSetting)
+            throws RemoteException, OperationApplicationException {
+        Log.v(LOG_TAG, forecast.cityName + ", with coord: " + forecast.cityLatitude + " " + forecast.cityLongitude);
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(forecast.days.size() + 1);
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildUpsertUri())
+                .withValue(LocationEntry.COLUMN_LOCATION_NAME, forecast.cityName)
+                .withValue(LocationEntry.COLUMN_SETTING, locationSetting)
+                .withValue(LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude)
+                .withValue(LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude)
+                .build());
+        Uri weatherUri = WeatherEntry.buildUpsertUri();
+        for (ContentValues day : forecast.days) {
+            operations.add(ContentProviderOperation.newInsert(weatherUri).withValues(day)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        int[] counts = new int[3];
+        for (int i = 0; i < results.length; i++) {
+            if (i == 0) {
+                mLocations.remember(locationSetting, ContentUris.parseId(results[i].uri));
+                continue;
+            }
+            String outcome = WeatherEntry.getUpsertOutcome(results[i].uri);
+            if (WeatherEntry.OUTCOME_INSERTED.equals(outcome)) {
+                counts[0]++;
+            } else if (WeatherEntry.OUTCOME_UPDATED.equals(outcome)) {
+                counts[1]++;
+            } else {
+                counts[2]++;
+            }
+        }
+        return counts;
+    }
+}
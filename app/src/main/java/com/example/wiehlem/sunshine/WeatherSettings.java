@@ -0,0 +1,66 @@
+package com.example.wiehlem.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * Immutable snapshot of the settings read on hot paths, the preferred location and the
+ * temperature units.
+ * <p/>
+ * Looking them up in the SharedPreferences costs a map lookup under a lock plus resource
+ * lookups for the key and default every time, and {@link ForecastAdapter#bindView} does that
+ * for every list row. Instead the current snapshot is kept in memory and replaced as a whole
+ * by a preference change listener, so readers always see a consistent pair of values without
+ * any locking.
+ */
+public final class WeatherSettings {
+
+    private static volatile WeatherSettings sCurrent;
+
+    // SharedPreferences only keeps a weak reference to its listeners.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String locationSetting;
+    public final boolean isMetric;
+
+    private WeatherSettings(String locationSetting, boolean isMetric) {
+        this.locationSetting = locationSetting;
+        this.isMetric = isMetric;
+    }
+
+    /**
+     * @return the current settings, read from the SharedPreferences only on first use
+     */
+    public static WeatherSettings get(Context context) {
+        WeatherSettings settings = sCurrent;
+        if (settings == null) {
+            settings = init(context.getApplicationContext());
+        }
+        return settings;
+    }
+
+    private static synchronized WeatherSettings init(final Context context) {
+        if (sCurrent == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    sCurrent = read(context, prefs);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sCurrent = read(context, prefs);
+        }
+        return sCurrent;
+    }
+
+    private static WeatherSettings read(Context context, SharedPreferences prefs) {
+        String location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metric = context.getString(R.string.pref_temperature_unit_default);
+        boolean isMetric = prefs.getString(context.getString(R.string.pref_temperature_unit_key),
+                metric).equals(metric);
+        return new WeatherSettings(location, isMetric);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.wiehlem.sunshine;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract;
+import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Refreshes stale locations in the background.
+ * <p/>
+ * An inexact repeating alarm starts the service once per sync interval. Every run collects
+ * all locations whose last successful sync is older than their TTL and fetches them in one
+ * batch, locations that are still fresh are left alone. The TTL is half the sync interval,
+ * so a location refreshed in the foreground shortly before the alarm isn't fetched again,
+ * while no location is ever more than one and a half intervals old. After the fetches the
+ * forecast days before the retention horizon are purged.
+ */
+public class WeatherSyncService extends IntentService {
+
+    private static final String LOG_TAG = WeatherSyncService.class.getSimpleName();
+
+    public WeatherSyncService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * (Re)schedule the alarm with the interval from the preferences.
+     */
+    public static void schedule(Context context) {
+        schedule(context, getSyncIntervalMillis(context));
+    }
+
+    /**
+     * (Re)schedule the alarm with the given interval, 0 turns background sync off.
+     */
+    public static void schedule(Context context, long intervalMillis) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent operation = PendingIntent.getService(context, 0,
+                new Intent(context, WeatherSyncService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        alarmManager.cancel(operation);
+        if (intervalMillis > 0) {
+            // Not a wakeup alarm: the sync runs with whatever else wakes the device next.
+            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + intervalMillis, intervalMillis, operation);
+        }
+    }
+
+    public static long getSyncIntervalMillis(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String minutes = prefs.getString(context.getString(R.string.pref_sync_interval_key),
+                context.getString(R.string.pref_sync_interval_default));
+        return Long.parseLong(minutes) * 60 * 1000;
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        long interval = getSyncIntervalMillis(this);
+        if (interval <= 0) {
+            return;
+        }
+
+        List<String> due = getDueLocations(this, System.currentTimeMillis(), interval / 2);
+        if (due.isEmpty()) {
+            Log.v(LOG_TAG, "All locations are fresh");
+        } else {
+            WeatherFetchEngine.Report report =
+                    new WeatherFetchEngine(new WeatherFetcher(this)).fetchAll(due);
+            Log.v(LOG_TAG, "Synced " + due.size() + " locations in " + report.elapsedMillis
+                    + "ms, " + report.getFailureCount() + " failed");
+        }
+        purgeOldForecasts(this);
+    }
+
+    /**
+     * Purge the forecast days before the retention horizon, and vacuum if that freed enough
+     * of the database file. Runs here rather than after each ingest, so neither its time nor
+     * a failure of it ever falls on a refresh. A failed purge is tried again next time.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void purgeOldForecasts(Context context) {
+        try {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                // Without ContentResolver.call() the days are deleted in one go, no vacuum.
+                long horizon = WeatherContract.getTodayEpochDay() - context.getResources()
+                        .getInteger(R.integer.forecast_retention_days);
+                int deleted = context.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                        WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(horizon)});
+                Log.v(LOG_TAG, "Purged " + deleted + " past forecast days");
+                return;
+            }
+            Bundle report = context.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.METHOD_PURGE, null, null);
+            Log.v(LOG_TAG, "Purged " + report.getInt(WeatherEntry.EXTRA_DELETED)
+                    + " past forecast days");
+        } catch (SQLException e) {
+            Log.w(LOG_TAG, "Purging past forecast days failed", e);
+        }
+    }
+
+    /**
+     * @return the location settings whose last successful sync is older than the TTL,
+     * including the preferred location if it has never been synced at all
+     */
+    static List<String> getDueLocations(Context context, long now, long ttlMillis) {
+        List<String> due = new ArrayList<String>();
+        String preferred = Utility.getPreferredLocation(context);
+        boolean preferredKnown = false;
+
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_SETTING, LocationEntry.COLUMN_LAST_SYNC},
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                String setting = cursor.getString(0);
+                if (setting.equals(preferred)) {
+                    preferredKnown = true;
+                }
+                if (cursor.getLong(1) < now - ttlMillis) {
+                    due.add(setting);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (!preferredKnown) {
+            due.add(preferred);
+        }
+        return due;
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * In-memory cache of query results, keyed by the SQL and arguments of the query, which
+ * cover the route, its arguments and the projection.
+ * <p/>
+ * The list and detail view ask for the same few results again on every resume and
+ * configuration change. A cached result is copied out of its cursor once and served as a
+ * cursor over the shared rows, without touching SQLite. Entries are dropped when the
+ * provider writes something their uri covers, the same way observers of that uri are
+ * notified, and the least recently used ones are evicted beyond the memory budget.
+ * <p/>
+ * Copying needs Cursor.getType(), so before Honeycomb nothing is cached.
+ */
+class QueryResultCache {
+
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+    // Larger results aren't worth keeping, they would push out everything else.
+    static final int DEFAULT_MAX_ROWS = 200;
+
+    private static final boolean SUPPORTED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+
+    private static class Entry {
+        final List<String> path;
+        final String[] columns;
+        final Object[][] rows;
+        final int bytes;
+
+        Entry(List<String> path, String[] columns, Object[][] rows, int bytes) {
+            this.path = path;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int mMaxBytes;
+    private final int mMaxRows;
+    // In access order, the first entry is the least recently used one.
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int mBytes;
+    private long mGeneration;
+
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private int mInvalidations;
+
+    QueryResultCache(int maxBytes, int maxRows) {
+        mMaxBytes = maxBytes;
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * @return a cursor over the cached result of the query, or null if it isn't cached
+     */
+    synchronized Cursor get(WeatherProvider.QuerySpec spec) {
+        Entry entry = mEntries.get(keyOf(spec));
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new CachedCursor(entry.columns, entry.rows);
+    }
+
+    /**
+     * Read before running a query that is going to be put into the cache, a result read
+     * while something was invalidated may already be stale.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the result of the query, which was run on uri.
+     *
+     * @param generation {@link #getGeneration()} from before the query was run
+     * @return the cursor to hand out instead of the given one, which may have been consumed
+     */
+    Cursor put(WeatherProvider.QuerySpec spec, Uri uri, Cursor cursor, long generation) {
+        if (!SUPPORTED || cursor.getCount() > mMaxRows) {
+            return cursor;
+        }
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        int bytes = 64;
+        try {
+            for (int row = 0; cursor.moveToPosition(row); row++) {
+                rows[row] = readRow(cursor, columns.length);
+                bytes += 16;
+                for (Object value : rows[row]) {
+                    bytes += sizeOf(value);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        Entry entry = new Entry(uri.getPathSegments(), columns, rows, bytes);
+
+        synchronized (this) {
+            if (generation == mGeneration && bytes <= mMaxBytes) {
+                Entry replaced = mEntries.put(keyOf(spec), entry);
+                if (replaced != null) {
+                    mBytes -= replaced.bytes;
+                }
+                mBytes += bytes;
+                evict();
+            }
+        }
+        return new CachedCursor(columns, rows);
+    }
+
+    /**
+     * Drop every result that a change of the uri affects: the results of the uri itself,
+     * of its parents and of its descendants. A change of a location affects every result,
+     * the weather routes join the location table.
+     */
+    void invalidate(Uri changedUri) {
+        List<String> changed = changedUri.getPathSegments();
+        invalidate(changed, changed.isEmpty()
+                || changed.get(0).equals(WeatherContract.PATH_LOCATION));
+    }
+
+    /**
+     * Drop only the results of the uri itself, its parents and descendants, for a change of
+     * columns that no other route reads.
+     */
+    void invalidateRelated(Uri changedUri) {
+        invalidate(changedUri.getPathSegments(), false);
+    }
+
+    private synchronized void invalidate(List<String> changed, boolean all) {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (all || isPrefix(entry.path, changed) || isPrefix(changed, entry.path)) {
+                entries.remove();
+                mBytes -= entry.bytes;
+                mInvalidations++;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mInvalidations += mEntries.size();
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    synchronized int getHits() {
+        return mHits;
+    }
+
+    synchronized int getMisses() {
+        return mMisses;
+    }
+
+    synchronized int getEvictions() {
+        return mEvictions;
+    }
+
+    synchronized int getInvalidations() {
+        return mInvalidations;
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    synchronized int getSize() {
+        return mEntries.size();
+    }
+
+    private void evict() {
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (mBytes > mMaxBytes && entries.hasNext()) {
+            Entry entry = entries.next();
+            entries.remove();
+            mBytes -= entry.bytes;
+            mEvictions++;
+        }
+    }
+
+    private static String keyOf(WeatherProvider.QuerySpec spec) {
+        return spec.selectionArgs == null ? spec.sql
+                : spec.sql + '\u0000' + Arrays.toString(spec.selectionArgs);
+    }
+
+    private static boolean isPrefix(List<String> prefix, List<String> path) {
+        return prefix.size() <= path.size() && path.subList(0, prefix.size()).equals(prefix);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Object[] readRow(Cursor cursor, int columnCount) {
+        Object[] row = new Object[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[column] = cursor.getLong(column);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[column] = cursor.getDouble(column);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    row[column] = cursor.getString(column);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[column] = cursor.getBlob(column);
+                    break;
+                default:
+                    row[column] = null;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Rough heap size of a value, including the reference to it.
+     */
+    private static int sizeOf(Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof String) {
+            return 44 + 2 * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 20 + ((byte[]) value).length;
+        }
+        return 20;
+    }
+
+    /**
+     * Read-only cursor over cached rows, which are shared by every cursor handed out for
+     * the same entry.
+     */
+    private static class CachedCursor extends AbstractCursor {
+        private final String[] mColumns;
+        private final Object[][] mRows;
+
+        CachedCursor(String[] columns, Object[][] rows) {
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        private Object get(int column) {
+            return mRows[getPosition()][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return value != null ? (long) parse(value.toString()) : 0;
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return value != null ? parse(value.toString()) : 0;
+        }
+
+        /**
+         * Like SQLite, text that isn't a number reads as 0.
+         */
+        private static double parse(String text) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
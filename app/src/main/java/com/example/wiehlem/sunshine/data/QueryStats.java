@@ -0,0 +1,99 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.StatsEntry;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency and row counts of the provider's calls per route and operation, served on
+ * {@link StatsEntry#CONTENT_URI}.
+ */
+class QueryStats {
+
+    private static class Counter {
+        int calls;
+        long rows;
+        long totalMicros;
+        long maxMicros;
+        int slow;
+        final int[] buckets = new int[StatsEntry.BUCKET_BOUNDS_MILLIS.length + 1];
+    }
+
+    // Sorted by route and operation, so the stats read the same every time.
+    private final Map<String, Counter> mCounters = new TreeMap<String, Counter>();
+
+    /**
+     * @param slow whether the call took at least the slow query threshold
+     */
+    synchronized void record(String route, String operation, long nanos, long rows,
+                             boolean slow) {
+        String key = route + ' ' + operation;
+        Counter counter = mCounters.get(key);
+        if (counter == null) {
+            counter = new Counter();
+            mCounters.put(key, counter);
+        }
+        long micros = nanos / 1000;
+        counter.calls++;
+        counter.rows += Math.max(rows, 0);
+        counter.totalMicros += micros;
+        counter.maxMicros = Math.max(counter.maxMicros, micros);
+        if (slow) {
+            counter.slow++;
+        }
+        int bucket = 0;
+        while (bucket < StatsEntry.BUCKET_BOUNDS_MILLIS.length
+                && micros >= StatsEntry.BUCKET_BOUNDS_MILLIS[bucket] * 1000L) {
+            bucket++;
+        }
+        counter.buckets[bucket]++;
+    }
+
+    synchronized void reset() {
+        mCounters.clear();
+    }
+
+    /**
+     * @return a row per route and operation that was called, with the columns of
+     * {@link StatsEntry}
+     */
+    synchronized Cursor toCursor() {
+        int bounds = StatsEntry.BUCKET_BOUNDS_MILLIS.length;
+        String[] columns = new String[7 + bounds + 1];
+        columns[0] = StatsEntry.COLUMN_ROUTE;
+        columns[1] = StatsEntry.COLUMN_OPERATION;
+        columns[2] = StatsEntry.COLUMN_CALLS;
+        columns[3] = StatsEntry.COLUMN_ROWS;
+        columns[4] = StatsEntry.COLUMN_TOTAL_MICROS;
+        columns[5] = StatsEntry.COLUMN_MAX_MICROS;
+        columns[6] = StatsEntry.COLUMN_SLOW;
+        for (int i = 0; i < bounds; i++) {
+            columns[7 + i] = StatsEntry.getBucketColumn(i);
+        }
+        columns[7 + bounds] = StatsEntry.COLUMN_BUCKET_SLOWER;
+
+        MatrixCursor cursor = new MatrixCursor(columns, mCounters.size());
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            String key = entry.getKey();
+            int separator = key.lastIndexOf(' ');
+            Counter counter = entry.getValue();
+            Object[] row = new Object[columns.length];
+            row[0] = key.substring(0, separator);
+            row[1] = key.substring(separator + 1);
+            row[2] = counter.calls;
+            row[3] = counter.rows;
+            row[4] = counter.totalMicros;
+            row[5] = counter.maxMicros;
+            row[6] = counter.slow;
+            for (int i = 0; i <= bounds; i++) {
+                row[7 + i] = counter.buckets[i];
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -4,40 +4,52 @@ import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
  */
 public class WeatherContract {
-    // Format used for storing dates in the database.  ALso used for converting those strings
-    // back into date objects for comparison/processing.
-    public static final String DATE_FORMAT = "yyyyMMdd";
-
     public static final String CONTENT_AUTHORITY = "com.example.wiehlem.sunshine";
 
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
 
     public static final String PATH_LOCATION = "location";
     public static final String PATH_WEATHER = "weather";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_DASHBOARD = "dashboard";
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Dates are stored as epoch days, the number of days from 1970-01-01 to the calendar
+     * date in the device's time zone. They compare and sort as plain integers, and turning
+     * one back into something to display needs no parsing.
+     *
+     * @return the epoch day of the calendar date the given point in time falls on
+     */
+    public static long getEpochDay(Date date) {
+        long millis = date.getTime();
+        long local = millis + TimeZone.getDefault().getOffset(millis);
+        // Floor division, so times before 1970 don't round towards zero.
+        return local >= 0 ? local / MILLIS_PER_DAY : (local + 1) / MILLIS_PER_DAY - 1;
+    }
 
-    public static String getDbDateString(Date date) {
-        // Because the API returns a unix timestamp (measured in seconds),
-        // it must be converted to milliseconds in order to be converted to valid date.
-        SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT);
-        return sdf.format(date);
+    public static long getTodayEpochDay() {
+        return getEpochDay(new Date());
     }
 
-    public static Date getDateFromDb(String dateText) {
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(DATE_FORMAT);
-        try {
-            return dbDateFormat.parse(dateText);
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return null;
-        }
+    /**
+     * @return local midnight at the start of the epoch day
+     */
+    public static Date getDateFromEpochDay(long epochDay) {
+        long utcMidnight = epochDay * MILLIS_PER_DAY;
+        TimeZone timeZone = TimeZone.getDefault();
+        long millis = utcMidnight - timeZone.getOffset(utcMidnight);
+        // Use the offset in effect at the result, in case a DST switch lies in between.
+        return new Date(utcMidnight - timeZone.getOffset(millis));
     }
 
     public static final class LocationEntry implements BaseColumns {
@@ -61,9 +73,54 @@ public class WeatherContract {
 
         public static final String COLUMN_COORD_LONG = "location_long";
 
+        // Time of the last successful forecast sync, in milliseconds since the epoch.
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
+        // Full-text index of the name and setting of every location, maintained by triggers
+        // on the location table. Its docid is the location's _ID.
+        public static final String SEARCH_TABLE_NAME = "location_search";
+
+        public static final String PATH_SEARCH = "search";
+
+        // Query parameter turning an insert into a lookup-or-insert by location setting,
+        // done in one write transaction. Returns the uri of the stored row if there is one.
+        public static final String QUERY_PARAM_UPSERT = "upsert";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAM_UPSERT, "1").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(QUERY_PARAM_UPSERT));
+        }
+
+        /**
+         * The locations whose name or setting has words starting with every word of the
+         * query, best matches first: those whose name or setting starts with the whole query,
+         * then shorter names before longer ones. At most limit rows if the limit isn't
+         * negative.
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendPath(query);
+            if (limit >= 0) {
+                builder.appendQueryParameter(WeatherEntry.QUERY_PARAM_LIMIT,
+                        Integer.toString(limit));
+            }
+            return builder.build();
+        }
+
+        /**
+         * @return the query of a search uri, empty if it has none
+         */
+        public static String getSearchQueryFromUri(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            return segments.size() > 2 ? segments.get(2) : "";
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -81,8 +138,8 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as Text with format yyyy-MM-dd
-        public static final String COLUMN_DATETEXT = "date";
+        // Date, stored as an integer epoch day, see WeatherContract.getEpochDay()
+        public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -106,34 +163,254 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter turning a bulk insert into an upsert, which compares every row with
+        // the stored one for the same location and date and only writes the rows that differ.
+        public static final String QUERY_PARAM_UPSERT = "upsert";
+
+        // Query parameter limiting the number of rows a query on the weather routes returns.
+        public static final String QUERY_PARAM_LIMIT = "limit";
+
+        // Inserting a single row on the upsert uri returns the row's uri with this query
+        // parameter telling whether it was inserted, updated or left unchanged.
+        public static final String QUERY_PARAM_OUTCOME = "outcome";
+        public static final String OUTCOME_INSERTED = "inserted";
+        public static final String OUTCOME_UPDATED = "updated";
+        public static final String OUTCOME_UNCHANGED = "unchanged";
+
+        // ContentResolver.call() method doing the same upsert for the rows in EXTRA_VALUES,
+        // returning how many rows were inserted, updated and left unchanged.
+        public static final String METHOD_UPSERT = "upsertWeather";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+
+        // ContentResolver.call() method returning the counters of the provider's query result
+        // cache: hits, misses, evictions, invalidated entries and the bytes cached.
+        public static final String METHOD_QUERY_CACHE_STATS = "queryCacheStats";
+        public static final String EXTRA_HITS = "hits";
+        public static final String EXTRA_MISSES = "misses";
+        public static final String EXTRA_EVICTIONS = "evictions";
+        public static final String EXTRA_INVALIDATIONS = "invalidations";
+        public static final String EXTRA_CACHED_BYTES = "cached_bytes";
+
+        // ContentResolver.call() method purging the days before the retention horizon right
+        // away, returning how many rows were deleted and the size of the table and database
+        // file before and after. WeatherSyncService calls it after every background sync.
+        public static final String METHOD_PURGE = "purgeWeather";
+        public static final String EXTRA_DELETED = "deleted";
+        public static final String EXTRA_VACUUMED = "vacuumed";
+        public static final String EXTRA_ROWS_BEFORE = "rows_before";
+        public static final String EXTRA_ROWS_AFTER = "rows_after";
+        public static final String EXTRA_BYTES_BEFORE = "bytes_before";
+        public static final String EXTRA_BYTES_AFTER = "bytes_after";
+
+        // Query parameters bounding the days, inclusively, that a statistics uri covers.
+        public static final String QUERY_PARAM_FROM = "from";
+        public static final String QUERY_PARAM_TO = "to";
+
+        // Columns of the single row a statistics uri returns. The temperature minimum is the
+        // lowest low, its maximum the highest high and its average the mean of the days' lows
+        // and highs. Everything but the number of days is null if no day matches.
+        public static final String COLUMN_STATS_DAYS = "days";
+        public static final String COLUMN_STATS_TEMP_MIN = "temp_min";
+        public static final String COLUMN_STATS_TEMP_MAX = "temp_max";
+        public static final String COLUMN_STATS_TEMP_AVG = "temp_avg";
+        public static final String COLUMN_STATS_HUMIDITY_MIN = "humidity_min";
+        public static final String COLUMN_STATS_HUMIDITY_MAX = "humidity_max";
+        public static final String COLUMN_STATS_HUMIDITY_AVG = "humidity_avg";
+        public static final String COLUMN_STATS_PRESSURE_MIN = "pressure_min";
+        public static final String COLUMN_STATS_PRESSURE_MAX = "pressure_max";
+        public static final String COLUMN_STATS_PRESSURE_AVG = "pressure_avg";
+        public static final String COLUMN_STATS_WIND_MIN = "wind_min";
+        public static final String COLUMN_STATS_WIND_MAX = "wind_max";
+        public static final String COLUMN_STATS_WIND_AVG = "wind_avg";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAM_UPSERT, "1").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(QUERY_PARAM_UPSERT));
+        }
+
+        public static Uri buildUpsertResultUri(long id, String outcome) {
+            return buildWeatherUri(id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_OUTCOME, outcome).build();
+        }
+
+        /**
+         * @return one of the OUTCOME_ constants, or null for a uri not returned by an upsert
+         */
+        public static String getUpsertOutcome(Uri uri) {
+            return uri.getQueryParameter(QUERY_PARAM_OUTCOME);
+        }
+
         public static Uri buildWeatherLocation(String locationSetting) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
         }
 
         public static Uri buildWeatherLocationWithStartDate(
-                String locationSetting, String startDate) {
+                String locationSetting, long startDate) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendQueryParameter(COLUMN_DATETEXT, startDate).build();
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(startDate)).build();
         }
 
-        public static Uri buildWeatherLocationWithDate(String locationSetting, String date) {
-            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(date).build();
+        /**
+         * A page of the location's forecast: at most limit days from the start date on, in
+         * ascending order. The next page starts the day after the last day of this one.
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long startDate,
+                                                   int limit) {
+            return buildWeatherLocationWithStartDate(locationSetting, startDate).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(date)).build();
+        }
+
+        /**
+         * Minimum, maximum and average of the location's weather from one day to another,
+         * both inclusive, computed by the database. Either bound may be -1 for none.
+         */
+        public static Uri buildWeatherStatsUri(String locationSetting, long fromDate,
+                                               long toDate) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS);
+            if (fromDate >= 0) {
+                builder.appendQueryParameter(QUERY_PARAM_FROM, Long.toString(fromDate));
+            }
+            if (toDate >= 0) {
+                builder.appendQueryParameter(QUERY_PARAM_TO, Long.toString(toDate));
+            }
+            return builder.build();
         }
 
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static String getDateFromUri(Uri uri) {
-            return uri.getPathSegments().get(2);
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        /**
+         * @return the start date of the uri, or -1 if it has none
+         */
+        public static long getStartDateFromUri(Uri uri) {
+            String startDate = uri.getQueryParameter(COLUMN_DATE);
+            return startDate != null ? Long.parseLong(startDate) : -1;
+        }
+
+        /**
+         * @return the first day of a statistics uri, or -1 if it has none
+         */
+        public static long getFromDateFromUri(Uri uri) {
+            String from = uri.getQueryParameter(QUERY_PARAM_FROM);
+            return from != null ? Long.parseLong(from) : -1;
         }
 
-        public static String getStartDateFromUri(Uri uri) {
-            return uri.getQueryParameter(COLUMN_DATETEXT);
+        /**
+         * @return the last day of a statistics uri, or -1 if it has none
+         */
+        public static long getToDateFromUri(Uri uri) {
+            String to = uri.getQueryParameter(QUERY_PARAM_TO);
+            return to != null ? Long.parseLong(to) : -1;
+        }
+
+        /**
+         * @return the maximum number of rows of the uri, or -1 if it has none
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(QUERY_PARAM_LIMIT);
+            return limit != null ? Integer.parseInt(limit) : -1;
+        }
+    }
+
+    /**
+     * The weather of one day for every stored location, a row per location that has a
+     * forecast for the day, ordered by location name. Rows have the location's _ID and
+     * columns of both {@link LocationEntry} and {@link WeatherEntry}.
+     */
+    public static final class DashboardEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_DASHBOARD).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_DASHBOARD;
+
+        /**
+         * @param date the epoch day, today on {@link #CONTENT_URI} itself
+         */
+        public static Uri buildDashboardUri(long date) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(WeatherEntry.COLUMN_DATE, Long.toString(date)).build();
+        }
+
+        /**
+         * @return the day of the uri, today if it names none
+         */
+        public static long getDateFromUri(Uri uri) {
+            String date = uri.getQueryParameter(WeatherEntry.COLUMN_DATE);
+            return date != null ? Long.parseLong(date) : getTodayEpochDay();
+        }
+    }
+
+    /**
+     * Read-only view of the provider's own statistics: a row per route and operation with
+     * the number of calls, the rows they returned or changed and a histogram of their
+     * latency. Deleting on the uri resets the statistics.
+     */
+    public static final class StatsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        // The route as registered with the provider's UriMatcher, e.g. "weather/*/#".
+        public static final String COLUMN_ROUTE = "route";
+        // One of the OPERATION_ constants.
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_CALLS = "calls";
+        // Rows returned by queries, or inserted, updated and deleted by the other operations.
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+        // Calls that took at least the slow query threshold, see METHOD_SET_SLOW_QUERY_THRESHOLD.
+        public static final String COLUMN_SLOW = "slow";
+
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulkInsert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        // Upper bounds of the latency histogram. Every bound has a column counting the calls
+        // that took less than it and at least the bound before, the last column counts the
+        // slower ones.
+        public static final int[] BUCKET_BOUNDS_MILLIS = {1, 4, 16, 64, 256};
+        public static final String COLUMN_BUCKET_SLOWER = "bucket_slower";
+
+        // ContentResolver.call() method setting the threshold in milliseconds, passed as the
+        // argument, from which on a call is logged with its query plan. A negative threshold
+        // turns the logging off. The default comes from R.integer.slow_query_threshold_millis.
+        public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "setSlowQueryThreshold";
+
+        /**
+         * @return the histogram column of the bucket with the upper bound at this index of
+         * {@link #BUCKET_BOUNDS_MILLIS}
+         */
+        public static String getBucketColumn(int index) {
+            return "bucket_" + BUCKET_BOUNDS_MILLIS[index] + "ms";
         }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,13 @@
 package com.example.wiehlem.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
 
+import com.example.wiehlem.sunshine.R;
 import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
 import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
 
@@ -15,67 +18,173 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
     private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    // If you change the database schema, you must increment the database version
+    // and add a step to WeatherDbMigrations.
+    static final int DATABASE_VERSION = 6;
 
     public static final String DATABASE_NAME = "weather.db";
 
+    // Every lookup of a location goes through its setting, the string the user entered.
+    public static final String INDEX_LOCATION_SETTING = "location_setting_idx";
+
+    // Not unique, two settings may well resolve to the same city. Lists of locations are
+    // ordered by name.
+    public static final String INDEX_LOCATION_NAME = "location_name_idx";
+
+    // Create a table to hold locations.  A location consists of the string supplied in the
+    // location setting, the city name, and the latitude and longitude
+    private static final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+            LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL," +
+            LocationEntry.COLUMN_SETTING + " TEXT NOT NULL," +
+            LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
+            LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL," +
+            LocationEntry.COLUMN_LAST_SYNC + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy.
+            // The location comes first: every query asks for one location and a date
+            // or a range of dates, which this index answers in date order.
+            " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // FTS3 rather than FTS4, which needs Honeycomb. The name and setting are copied, FTS3
+    // has no external content tables.
+    private static final String SQL_CREATE_LOCATION_SEARCH_TABLE = "CREATE VIRTUAL TABLE " +
+            LocationEntry.SEARCH_TABLE_NAME + " USING fts3(" +
+            LocationEntry.COLUMN_LOCATION_NAME + ", " + LocationEntry.COLUMN_SETTING + ");";
+
+    // Keep the search table in step with every insert, update and delete of a location.
+    private static final String[] SQL_CREATE_LOCATION_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER location_search_insert AFTER INSERT ON " +
+                    LocationEntry.TABLE_NAME + " BEGIN INSERT INTO " +
+                    LocationEntry.SEARCH_TABLE_NAME + " (docid, " +
+                    LocationEntry.COLUMN_LOCATION_NAME + ", " + LocationEntry.COLUMN_SETTING +
+                    ") VALUES (new." + LocationEntry._ID + ", new." +
+                    LocationEntry.COLUMN_LOCATION_NAME + ", new." +
+                    LocationEntry.COLUMN_SETTING + "); END;",
+            "CREATE TRIGGER location_search_update AFTER UPDATE OF " +
+                    LocationEntry.COLUMN_LOCATION_NAME + ", " + LocationEntry.COLUMN_SETTING +
+                    " ON " + LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " +
+                    LocationEntry.SEARCH_TABLE_NAME + " WHERE docid = old." + LocationEntry._ID +
+                    "; INSERT INTO " + LocationEntry.SEARCH_TABLE_NAME + " (docid, " +
+                    LocationEntry.COLUMN_LOCATION_NAME + ", " + LocationEntry.COLUMN_SETTING +
+                    ") VALUES (new." + LocationEntry._ID + ", new." +
+                    LocationEntry.COLUMN_LOCATION_NAME + ", new." +
+                    LocationEntry.COLUMN_SETTING + "); END;",
+            "CREATE TRIGGER location_search_delete AFTER DELETE ON " +
+                    LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " +
+                    LocationEntry.SEARCH_TABLE_NAME + " WHERE docid = old." +
+                    LocationEntry._ID + "; END;"
+    };
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests, which work on databases of their own.
+    WeatherDbHelper(Context context, String name) {
+        this(context, name,
+                context.getResources().getBoolean(R.bool.use_write_ahead_logging));
+    }
+
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLogging(mWriteAheadLogging);
+        }
+    }
+
+    /**
+     * Whether the database runs in write-ahead logging mode. Readers then use connections of
+     * their own and see the last committed state while a transaction is writing, instead of
+     * waiting for it to finish. Writers should begin their transactions with
+     * {@link #beginWrite} so they don't take an exclusive lock they don't need.
+     */
+    public boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    /**
+     * Begin a write transaction, non-exclusive in write-ahead logging mode.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void beginWrite(SQLiteDatabase db) {
+        if (mWriteAheadLogging) {
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLogging(boolean enabled) {
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't be configured up front.
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL," +
-                LocationEntry.COLUMN_SETTING + " TEXT NOT NULL," +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL," +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL," +
-                " UNIQUE (" + LocationEntry.COLUMN_LOCATION_NAME + ") ON CONFLICT IGNORE);";
-        // TBD
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATETEXT + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATETEXT + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+        final String SQL_CREATE_LOCATION_SETTING_INDEX = "CREATE UNIQUE INDEX " +
+                INDEX_LOCATION_SETTING + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_SETTING + ");";
+        final String SQL_CREATE_LOCATION_NAME_INDEX = "CREATE INDEX " +
+                INDEX_LOCATION_NAME + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_LOCATION_NAME + ");";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SETTING_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_NAME_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SEARCH_TABLE);
+        for (String trigger : SQL_CREATE_LOCATION_SEARCH_TRIGGERS) {
+            sqLiteDatabase.execSQL(trigger);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // Keep the cached forecasts, see WeatherDbMigrations.
+        WeatherDbMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
     }
-}
\ No newline at end of file
+}
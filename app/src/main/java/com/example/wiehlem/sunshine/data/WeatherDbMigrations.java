@@ -0,0 +1,204 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Upgrades an existing database one version at a time, transforming the stored forecasts
+ * and locations in place instead of dropping them.
+ * <p/>
+ * Every step only knows the schema of the version it comes from and the one it produces,
+ * so the SQL in here is frozen: it spells out table and column names as they were at that
+ * version and must not follow later changes to the contract. A schema change adds a new
+ * step at the end of {@link #MIGRATIONS} and bumps the database version. SQLiteOpenHelper
+ * runs onUpgrade() in a transaction, a step that fails leaves the database untouched.
+ */
+final class WeatherDbMigrations {
+
+    private static final String LOG_TAG = WeatherDbMigrations.class.getSimpleName();
+
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * Version 2 records when each location was last synced.
+     */
+    static final Migration TO_VERSION_2 = new Migration(2) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE location ADD COLUMN last_sync INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Version 3 makes the location setting unique and indexed, and keys the weather rows by
+     * (location_id, date) instead of (date, location_id).
+     */
+    static final Migration TO_VERSION_3 = new Migration(3) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            // Nothing prevented two locations with the same setting so far. Keep the oldest,
+            // the forecasts of the others are fetched again.
+            final String duplicates = "SELECT _id FROM location WHERE _id NOT IN " +
+                    "(SELECT MIN(_id) FROM location GROUP BY location_setting)";
+            db.execSQL("DELETE FROM weather WHERE location_id IN (" + duplicates + ")");
+            db.execSQL("DELETE FROM location WHERE _id IN (" + duplicates + ")");
+            db.execSQL("CREATE UNIQUE INDEX location_setting_idx ON location (location_setting)");
+
+            rebuildWeatherTable(db, "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date TEXT NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (location_id, date) ON CONFLICT REPLACE);", "date");
+        }
+    };
+
+    /**
+     * Version 4 stores dates as integer epoch days instead of yyyyMMdd text. julianday() of
+     * a date is its midnight UTC in days since 4714 BC, 2440587.5 of them before 1970-01-01.
+     */
+    static final Migration TO_VERSION_4 = new Migration(4) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            rebuildWeatherTable(db, "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                    " UNIQUE (location_id, date) ON CONFLICT REPLACE);",
+                    "CAST(julianday(substr(date, 1, 4) || '-' || substr(date, 5, 2) || '-' || " +
+                            "substr(date, 7, 2)) - 2440587.5 AS INTEGER)");
+        }
+    };
+
+    /**
+     * Version 5 adds a full-text index of the locations' names and settings, kept up to date
+     * by triggers, and fills it with the stored locations.
+     */
+    static final Migration TO_VERSION_5 = new Migration(5) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE location_search USING " +
+                    "fts3(location_name, location_setting);");
+            db.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON location " +
+                    "BEGIN INSERT INTO location_search (docid, location_name, location_setting) " +
+                    "VALUES (new._id, new.location_name, new.location_setting); END;");
+            db.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE OF location_name, " +
+                    "location_setting ON location BEGIN " +
+                    "DELETE FROM location_search WHERE docid = old._id; " +
+                    "INSERT INTO location_search (docid, location_name, location_setting) " +
+                    "VALUES (new._id, new.location_name, new.location_setting); END;");
+            db.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON location " +
+                    "BEGIN DELETE FROM location_search WHERE docid = old._id; END;");
+            db.execSQL("INSERT INTO location_search (docid, location_name, location_setting) " +
+                    "SELECT _id, location_name, location_setting FROM location");
+        }
+    };
+
+    /**
+     * Version 6 drops the unique constraint on the location name, which made a second
+     * setting for the same city fail to insert. The setting is the only unique key, the name
+     * keeps a plain index for the lists ordered by it.
+     */
+    static final Migration TO_VERSION_6 = new Migration(6) {
+        @Override
+        void migrate(SQLiteDatabase db) {
+            // Copy into a new table rather than renaming the old one away, a rename would
+            // also point the weather table's foreign key at the old name. Dropping the table
+            // takes its indexes and search triggers along, the search table itself is kept
+            // as the ids don't change.
+            final String columns = "_id, location_name, location_setting, location_lat, " +
+                    "location_long, last_sync";
+            db.execSQL("CREATE TABLE location_new (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_name TEXT NOT NULL,location_setting TEXT NOT NULL," +
+                    "location_lat REAL NOT NULL,location_long REAL NOT NULL," +
+                    "last_sync INTEGER NOT NULL DEFAULT 0);");
+            db.execSQL("INSERT INTO location_new (" + columns + ") SELECT " + columns +
+                    " FROM location");
+            db.execSQL("DROP TABLE location");
+            db.execSQL("ALTER TABLE location_new RENAME TO location");
+
+            db.execSQL("CREATE UNIQUE INDEX location_setting_idx ON location (location_setting)");
+            db.execSQL("CREATE INDEX location_name_idx ON location (location_name)");
+            db.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON location " +
+                    "BEGIN INSERT INTO location_search (docid, location_name, location_setting) " +
+                    "VALUES (new._id, new.location_name, new.location_setting); END;");
+            db.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE OF location_name, " +
+                    "location_setting ON location BEGIN " +
+                    "DELETE FROM location_search WHERE docid = old._id; " +
+                    "INSERT INTO location_search (docid, location_name, location_setting) " +
+                    "VALUES (new._id, new.location_name, new.location_setting); END;");
+            db.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON location " +
+                    "BEGIN DELETE FROM location_search WHERE docid = old._id; END;");
+        }
+    };
+
+    // In ascending order of toVersion, without gaps.
+    static final Migration[] MIGRATIONS = {
+            TO_VERSION_2,
+            TO_VERSION_3,
+            TO_VERSION_4,
+            TO_VERSION_5,
+            TO_VERSION_6
+    };
+
+    private WeatherDbMigrations() {
+    }
+
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion == version + 1 && migration.toVersion <= newVersion) {
+                Log.i(LOG_TAG, "Migrating database to version " + migration.toVersion);
+                migration.migrate(db);
+                version = migration.toVersion;
+            }
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration from version " + version
+                    + " to " + newVersion);
+        }
+    }
+
+    /**
+     * SQLite can neither change a column's type nor a table constraint, so the weather table
+     * is recreated and the rows copied over.
+     *
+     * @param createSql   the new table
+     * @param dateColumn  expression for the new date column, computed from the old row
+     */
+    private static void rebuildWeatherTable(SQLiteDatabase db, String createSql,
+                                            String dateColumn) {
+        final String columns = "_id, location_id, short_desc, weather_id, min, max, " +
+                "humidity, pressure, wind, degrees";
+        db.execSQL("ALTER TABLE weather RENAME TO weather_old");
+        db.execSQL(createSql);
+        db.execSQL("INSERT INTO weather (" + columns + ", date) SELECT " + columns + ", " +
+                dateColumn + " FROM weather_old");
+        db.execSQL("DROP TABLE weather_old");
+    }
+}
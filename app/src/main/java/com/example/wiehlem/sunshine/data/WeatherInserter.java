@@ -0,0 +1,132 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Inserts weather rows through one precompiled statement.
+ * <p/>
+ * SQLiteDatabase.insert() builds the INSERT statement from the ContentValues' keys and
+ * prepares it again for every single row. For batches the statement is prepared once here
+ * and each row only binds its values by position. Meant to be used inside a transaction and
+ * closed when the batch is done, the statement belongs to the connection it was compiled on.
+ */
+public class WeatherInserter {
+    private static final String LOG_TAG = WeatherInserter.class.getSimpleName();
+
+    // The bind position of each column is its index in this array plus one.
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT;
+
+    static {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(WeatherEntry.TABLE_NAME)
+                .append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? "," : "").append(COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        SQL_INSERT = sql.append(')').toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mStatement;
+
+    public WeatherInserter(SQLiteDatabase db) {
+        mDb = db;
+        mStatement = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * @return the row id of the new row, or -1 on error
+     */
+    public long insert(ContentValues values) {
+        if (values.size() != COLUMNS.length || !hasAllColumns(values)) {
+            // Missing columns or ones the statement doesn't cover, e.g. an explicit _id.
+            return mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            bind(i + 1, values.get(COLUMNS[i]));
+        }
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // Same as SQLiteDatabase.insert(), which logs and returns -1 on a constraint error.
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Insert one row without going through ContentValues at all.
+     *
+     * @return the row id of the new row, or -1 on error
+     */
+    public long insert(long locationId, long date, String description, int weatherId,
+                       double min, double max, double humidity, double pressure,
+                       double windSpeed, double degrees) {
+        mStatement.bindLong(1, locationId);
+        mStatement.bindLong(2, date);
+        mStatement.bindString(3, description);
+        mStatement.bindLong(4, weatherId);
+        mStatement.bindDouble(5, min);
+        mStatement.bindDouble(6, max);
+        mStatement.bindDouble(7, humidity);
+        mStatement.bindDouble(8, pressure);
+        mStatement.bindDouble(9, windSpeed);
+        mStatement.bindDouble(10, degrees);
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting weather of location " + locationId + " on day "
+                    + date, e);
+            return -1;
+        }
+    }
+
+    public void close() {
+        mStatement.close();
+    }
+
+    private void bind(int index, Object value) {
+        if (value == null) {
+            mStatement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            mStatement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            mStatement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof byte[]) {
+            mStatement.bindBlob(index, (byte[]) value);
+        } else {
+            mStatement.bindString(index, value.toString());
+        }
+    }
+
+    private static boolean hasAllColumns(ContentValues values) {
+        for (String column : COLUMNS) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,44 +1,119 @@
 package com.example.wiehlem.sunshine.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.R;
 
 import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.DashboardEntry;
 import com.example.wiehlem.sunshine.data.WeatherContract.LocationEntry;
+import com.example.wiehlem.sunshine.data.WeatherContract.StatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by wiehlem on 31.07.2014.
  */
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     private static final int WEATHER = 100;
     private static final int WEATHER_WITH_LOCATION = 101;
     private static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    private static final int WEATHER_STATS = 103;
     private static final int LOCATION = 300;
     private static final int LOCATION_ID = 301;
+    private static final int LOCATION_SEARCH = 302;
+    private static final int DASHBOARD = 400;
+    private static final int STATS = 900;
+
+    // Indexes into the counts returned by upsertWeather().
+    private static final int UPSERT_INSERTED = 0;
+    private static final int UPSERT_UPDATED = 1;
+    private static final int UPSERT_UNCHANGED = 2;
+
+    /**
+     * State of an {@link #applyBatch} running on the current thread.
+     */
+    private static class Batch {
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        WeatherInserter inserter;
+
+        WeatherInserter getInserter(SQLiteDatabase db) {
+            if (inserter == null) {
+                inserter = new WeatherInserter(db);
+            }
+            return inserter;
+        }
+    }
 
+    // The path pattern of every route, to report statistics by.
+    private static final Map<Integer, String> sRoutes = new HashMap<Integer, String>();
     private static UriMatcher mMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherRetention mRetention;
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+    // Location settings by row id, for scoping weather change notifications.
+    private final Map<Long, String> mLocationSettings = new HashMap<Long, String>();
+    // The other way round, for querying the weather of a location without the join.
+    private final Map<String, Long> mLocationIds = new HashMap<String, Long>();
+    private final QueryResultCache mQueryCache = new QueryResultCache(
+            QueryResultCache.DEFAULT_MAX_BYTES, QueryResultCache.DEFAULT_MAX_ROWS);
+    private final QueryStats mStats = new QueryStats();
+    // Calls taking at least this long are logged with their query plan, none if negative.
+    private volatile long mSlowQueryThresholdMillis;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final String sWeatherByLocationSettingTables =
+            WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME +
+                    " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry._ID;
 
-    static {
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
-        sWeatherByLocationSettingQueryBuilder.setTables(
-                WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
-                        WeatherContract.LocationEntry.TABLE_NAME +
-                        " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
-                        "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID
-        );
-    }
+    // Every location with its weather of one day, one index lookup per location. Walking the
+    // locations through the index on their name gives the order for free.
+    private static final String sDashboardTables =
+            LocationEntry.TABLE_NAME + " INNER JOIN " + WeatherEntry.TABLE_NAME +
+                    " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+                    " AND " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String[] sDashboardColumns = new String[]{
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " AS " + LocationEntry._ID,
+            LocationEntry.COLUMN_SETTING,
+            LocationEntry.COLUMN_LOCATION_NAME,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
 
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
@@ -46,109 +121,360 @@ public class WeatherProvider extends ContentProvider {
     private static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + LocationEntry.COLUMN_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " >= ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     private static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + LocationEntry.COLUMN_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATETEXT + " = ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+    private static final String sLocationIdSelection = LocationEntry._ID + " = ?";
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, date},
-                null,
-                null,
-                sortOrder
-        );
+    private static final String sLocationSearchSelection = LocationEntry._ID + " IN (SELECT " +
+            "docid FROM " + LocationEntry.SEARCH_TABLE_NAME + " WHERE " +
+            LocationEntry.SEARCH_TABLE_NAME + " MATCH ?)";
+    // Locations whose name or setting starts with the whole query first, then short names.
+    private static final String sLocationSearchOrder = "CASE WHEN " +
+            LocationEntry.COLUMN_LOCATION_NAME + " LIKE ? OR " + LocationEntry.COLUMN_SETTING +
+            " LIKE ? THEN 0 ELSE 1 END, length(" + LocationEntry.COLUMN_LOCATION_NAME + "), " +
+            LocationEntry.COLUMN_LOCATION_NAME;
+
+    private static final String sLocationKeySelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ?";
+    private static final String sLocationKeyWithStartDateSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    // Location columns that can't be answered from the weather table alone, besides the
+    // qualified location._id.
+    private static final Set<String> sJoinedLocationColumns = new HashSet<String>(Arrays.asList(
+            LocationEntry.COLUMN_LOCATION_NAME, LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG, LocationEntry.COLUMN_LAST_SYNC));
+
+    // The statistics of a location's weather, aggregated in a single pass over its days.
+    private static final String[] sWeatherStatsColumns = new String[]{
+            "COUNT(*) AS " + WeatherEntry.COLUMN_STATS_DAYS,
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ") AS " + WeatherEntry.COLUMN_STATS_TEMP_MIN,
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ") AS " + WeatherEntry.COLUMN_STATS_TEMP_MAX,
+            "AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP +
+                    ") / 2.0) AS " + WeatherEntry.COLUMN_STATS_TEMP_AVG,
+            "MIN(" + WeatherEntry.COLUMN_HUMIDITY + ") AS " + WeatherEntry.COLUMN_STATS_HUMIDITY_MIN,
+            "MAX(" + WeatherEntry.COLUMN_HUMIDITY + ") AS " + WeatherEntry.COLUMN_STATS_HUMIDITY_MAX,
+            "AVG(" + WeatherEntry.COLUMN_HUMIDITY + ") AS " + WeatherEntry.COLUMN_STATS_HUMIDITY_AVG,
+            "MIN(" + WeatherEntry.COLUMN_PRESSURE + ") AS " + WeatherEntry.COLUMN_STATS_PRESSURE_MIN,
+            "MAX(" + WeatherEntry.COLUMN_PRESSURE + ") AS " + WeatherEntry.COLUMN_STATS_PRESSURE_MAX,
+            "AVG(" + WeatherEntry.COLUMN_PRESSURE + ") AS " + WeatherEntry.COLUMN_STATS_PRESSURE_AVG,
+            "MIN(" + WeatherEntry.COLUMN_WIND_SPEED + ") AS " + WeatherEntry.COLUMN_STATS_WIND_MIN,
+            "MAX(" + WeatherEntry.COLUMN_WIND_SPEED + ") AS " + WeatherEntry.COLUMN_STATS_WIND_MAX,
+            "AVG(" + WeatherEntry.COLUMN_WIND_SPEED + ") AS " + WeatherEntry.COLUMN_STATS_WIND_AVG
+    };
+
+    private static final Pattern sColumnPattern =
+            Pattern.compile("(?:(\\w+)\\.)?(\\w+)");
+
+    /**
+     * A query as it is sent to SQLite: the SQL and the arguments for it.
+     */
+    static final class QuerySpec {
+        final String sql;
+        final String[] selectionArgs;
+
+        QuerySpec(String tables, String[] projection, String selection, String[] selectionArgs,
+                  String sortOrder) {
+            this(tables, projection, selection, selectionArgs, sortOrder, null);
+        }
+
+        QuerySpec(String tables, String[] projection, String selection, String[] selectionArgs,
+                  String sortOrder, String limit) {
+            this.sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection, selection,
+                    null, null, sortOrder, limit);
+            this.selectionArgs = selectionArgs;
+        }
     }
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        String startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+    /**
+     * Build the query for a content uri, used by {@link #query} and by the tests checking
+     * that every route is answered through an index.
+     */
+    static QuerySpec buildQuery(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
+        return buildQuery(uri, projection, selection, selectionArgs, sortOrder, -1);
+    }
 
-        String[] selectionArgs;
-        String selection;
+    /**
+     * Build the query for a content uri. Given the row id of the location of a weather uri,
+     * the weather of the location is queried from the weather table alone, with the location
+     * setting as a literal, see {@link #needsLocationJoin}. Otherwise the weather table is
+     * joined with the location table to match the setting.
+     */
+    static QuerySpec buildQuery(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder, long locationId) {
+        switch (mMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE: {
+                String locationSetting = WeatherEntry.getLocationSettingFromUri(uri);
+                long date = WeatherEntry.getDateFromUri(uri);
+                if (locationId >= 0) {
+                    return new QuerySpec(WeatherEntry.TABLE_NAME,
+                            projectSetting(projection, locationSetting), sLocationIdAndDaySelection,
+                            new String[]{Long.toString(locationId), Long.toString(date)},
+                            sortOrder);
+                }
+                return new QuerySpec(sWeatherByLocationSettingTables, projection,
+                        sLocationSettingAndDaySelection,
+                        new String[]{locationSetting, Long.toString(date)}, sortOrder);
+            }
+            case WEATHER_WITH_LOCATION: {
+                String locationSetting = WeatherEntry.getLocationSettingFromUri(uri);
+                long startDate = WeatherEntry.getStartDateFromUri(uri);
+                String limit = getLimit(uri);
+                if (limit != null && sortOrder == null) {
+                    // A page has to be a stable slice of the forecast.
+                    sortOrder = WeatherEntry.COLUMN_DATE + " ASC";
+                }
+                if (locationId >= 0) {
+                    String[] weatherProjection = projectSetting(projection, locationSetting);
+                    if (startDate < 0) {
+                        return new QuerySpec(WeatherEntry.TABLE_NAME, weatherProjection,
+                                sLocationKeySelection, new String[]{Long.toString(locationId)},
+                                sortOrder, limit);
+                    }
+                    return new QuerySpec(WeatherEntry.TABLE_NAME, weatherProjection,
+                            sLocationKeyWithStartDateSelection,
+                            new String[]{Long.toString(locationId), Long.toString(startDate)},
+                            sortOrder, limit);
+                }
+                if (startDate < 0) {
+                    return new QuerySpec(sWeatherByLocationSettingTables, projection,
+                            sLocationSettingSelection, new String[]{locationSetting}, sortOrder,
+                            limit);
+                }
+                return new QuerySpec(sWeatherByLocationSettingTables, projection,
+                        sLocationSettingWithStartDateSelection,
+                        new String[]{locationSetting, Long.toString(startDate)}, sortOrder, limit);
+            }
+            case WEATHER_STATS:
+                return buildStatsQuery(uri, projection, locationId);
+            case DASHBOARD: {
+                // The date is bound in the join, ahead of any arguments of the selection.
+                String[] args = new String[selectionArgs != null ? selectionArgs.length + 1 : 1];
+                args[0] = Long.toString(DashboardEntry.getDateFromUri(uri));
+                if (selectionArgs != null) {
+                    System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+                }
+                return new QuerySpec(sDashboardTables,
+                        projection != null ? projection : sDashboardColumns, selection, args,
+                        sortOrder != null ? sortOrder : LocationEntry.COLUMN_LOCATION_NAME + " ASC");
+            }
+            case WEATHER:
+                return new QuerySpec(WeatherEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, getLimit(uri));
+            case LOCATION:
+                return new QuerySpec(LocationEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder);
+            case LOCATION_ID:
+                return new QuerySpec(LocationEntry.TABLE_NAME, projection, sLocationIdSelection,
+                        new String[]{Long.toString(ContentUris.parseId(uri))}, sortOrder);
+            case LOCATION_SEARCH:
+                return buildSearchQuery(uri, projection);
+            default:
+                throw new UnsupportedOperationException("Uri unknown: " + uri);
+        }
+    }
 
-        if (startDate == null) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+    /**
+     * The statistics of the location's weather between the days of the uri. The aggregates
+     * are computed in a subquery, the projection picks from its columns.
+     */
+    private static QuerySpec buildStatsQuery(Uri uri, String[] projection, long locationId) {
+        String tables;
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        if (locationId >= 0) {
+            tables = WeatherEntry.TABLE_NAME;
+            selection.append(sLocationKeySelection);
+            args.add(Long.toString(locationId));
         } else {
-            selectionArgs = new String[]{locationSetting, startDate};
-            selection = sLocationSettingWithStartDateSelection;
+            tables = sWeatherByLocationSettingTables;
+            selection.append(sLocationSettingSelection);
+            args.add(WeatherEntry.getLocationSettingFromUri(uri));
+        }
+        long fromDate = WeatherEntry.getFromDateFromUri(uri);
+        if (fromDate >= 0) {
+            selection.append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" >= ?");
+            args.add(Long.toString(fromDate));
         }
+        long toDate = WeatherEntry.getToDateFromUri(uri);
+        if (toDate >= 0) {
+            selection.append(" AND ").append(WeatherEntry.COLUMN_DATE).append(" <= ?");
+            args.add(Long.toString(toDate));
+        }
+        String aggregates = SQLiteQueryBuilder.buildQueryString(false, tables,
+                sWeatherStatsColumns, selection.toString(), null, null, null, null);
+        return new QuerySpec("(" + aggregates + ")", projection, null,
+                args.toArray(new String[args.size()]), null);
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+    /**
+     * Prefix search of the locations through the full-text index. Every word of the query
+     * has to start a word of the name or setting. The index only finds the matching ids, the
+     * few matches are ranked afterwards.
+     */
+    private static QuerySpec buildSearchQuery(Uri uri, String[] projection) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        String query = LocationEntry.getSearchQueryFromUri(uri).toLowerCase(Locale.US);
+        for (int i = 0; i <= query.length(); i++) {
+            // Anything but letters and digits separates words, and can't be FTS syntax.
+            if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                word.append(query.charAt(i));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (words.isEmpty()) {
+            return new QuerySpec(LocationEntry.TABLE_NAME, projection, "0", null, null);
+        }
+        StringBuilder match = new StringBuilder();
+        StringBuilder prefix = new StringBuilder();
+        for (String each : words) {
+            if (match.length() > 0) {
+                match.append(' ');
+                prefix.append(' ');
+            }
+            match.append(each).append('*');
+            prefix.append(each);
+        }
+        prefix.append('%');
+        return new QuerySpec(LocationEntry.TABLE_NAME, projection, sLocationSearchSelection,
+                new String[]{match.toString(), prefix.toString(), prefix.toString()},
+                sLocationSearchOrder, getLimit(uri));
+    }
+
+    /**
+     * Whether a query of the weather of a location has to join the location table: when it
+     * asks for location columns other than the setting, which the uri already names, or for
+     * the whole row. Anything but plain, possibly qualified, column names is left to the join
+     * as well.
+     */
+    static boolean needsLocationJoin(String[] projection, String sortOrder) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            Matcher matcher = sColumnPattern.matcher(column.trim());
+            if (!matcher.matches()) {
+                return true;
+            }
+            String table = matcher.group(1);
+            String name = matcher.group(2);
+            if (table == null) {
+                if (sJoinedLocationColumns.contains(name)) {
+                    return true;
+                }
+            } else if (table.equals(LocationEntry.TABLE_NAME)) {
+                if (!name.equals(LocationEntry.COLUMN_SETTING)) {
+                    return true;
+                }
+            } else if (!table.equals(WeatherEntry.TABLE_NAME)) {
+                return true;
+            }
+        }
+        if (sortOrder != null) {
+            if (sortOrder.contains(LocationEntry.TABLE_NAME + ".")
+                    || sortOrder.contains(LocationEntry.COLUMN_SETTING)) {
+                return true;
+            }
+            for (String column : sJoinedLocationColumns) {
+                if (sortOrder.contains(column)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the projection with the location setting column replaced by the setting itself
+     */
+    private static String[] projectSetting(String[] projection, String locationSetting) {
+        String[] weatherProjection = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            Matcher matcher = sColumnPattern.matcher(projection[i].trim());
+            if (matcher.matches() && matcher.group(2).equals(LocationEntry.COLUMN_SETTING)) {
+                weatherProjection[i] = DatabaseUtils.sqlEscapeString(locationSetting) +
+                        " AS " + LocationEntry.COLUMN_SETTING;
+            } else {
+                weatherProjection[i] = projection[i];
+            }
+        }
+        return weatherProjection;
+    }
+
+    /**
+     * @return the limit of the uri for the LIMIT clause, or null if it has none
+     */
+    private static String getLimit(Uri uri) {
+        int limit = WeatherEntry.getLimitFromUri(uri);
+        if (limit < 0) {
+            return null;
+        }
+        return Integer.toString(limit);
     }
 
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mRetention = new WeatherRetention(mOpenHelper,
+                getContext().getResources().getInteger(R.integer.forecast_retention_days));
+        mSlowQueryThresholdMillis =
+                getContext().getResources().getInteger(R.integer.slow_query_threshold_millis);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        final int match = mMatcher.match(uri);
-        Cursor retCur;
-        switch (match) {
-            case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCur = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            case WEATHER_WITH_LOCATION: {
-                retCur = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            case WEATHER: {
-                retCur = mOpenHelper.getReadableDatabase().query(WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
-                break;
-            }
-            case LOCATION: {
-                retCur = mOpenHelper.getReadableDatabase().query(LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
-                break;
-            }
-            case LOCATION_ID: {
-                long id = ContentUris.parseId(uri);
-                retCur = mOpenHelper.getReadableDatabase().query(LocationEntry.TABLE_NAME,
-                        projection,
-                        String.format("%s = %d", LocationEntry._ID, id),
-                        null,
-                        null,
-                        null,
-                        sortOrder);
-                break;
-            }
-            default:
-                throw new UnsupportedOperationException("Uri unknown: " + uri);
+        int match = mMatcher.match(uri);
+        if (match == STATS) {
+            return mStats.toCursor();
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = -1;
+        if (match == WEATHER_STATS
+                || (match == WEATHER_WITH_LOCATION || match == WEATHER_WITH_LOCATION_AND_DATE)
+                && !needsLocationJoin(projection, sortOrder)) {
+            // Unknown locations go through the join, which finds nothing either.
+            locationId = getLocationId(db, WeatherEntry.getLocationSettingFromUri(uri));
+        }
+        QuerySpec spec = buildQuery(uri, projection, selection, selectionArgs, sortOrder,
+                locationId);
+        // Statistics change with any day of the location, they are watched and cached
+        // under the location's weather uri. The dashboard changes with every location.
+        Uri changeUri = uri;
+        if (match == WEATHER_STATS) {
+            changeUri = WeatherEntry.buildWeatherLocation(WeatherEntry.getLocationSettingFromUri(uri));
+        } else if (match == DASHBOARD) {
+            changeUri = WeatherContract.BASE_CONTENT_URI;
+        } else if (match == LOCATION_SEARCH) {
+            changeUri = LocationEntry.CONTENT_URI;
         }
+        Cursor retCur = mQueryCache.get(spec);
+        if (retCur == null) {
+            long generation = mQueryCache.getGeneration();
+            retCur = db.rawQuery(spec.sql, spec.selectionArgs);
+            retCur = mQueryCache.put(spec, changeUri, retCur, generation);
+        }
+        // A cursor runs its query when it is first asked for its count or rows, which is
+        // what the caller waits for.
+        int rows = retCur.getCount();
+        recordCall(match, StatsEntry.OPERATION_QUERY, System.nanoTime() - start, rows,
+                spec.sql, spec.selectionArgs);
 
-        retCur.setNotificationUri(getContext().getContentResolver(), uri);
+        retCur.setNotificationUri(getContext().getContentResolver(), changeUri);
         return retCur;
     }
 
@@ -158,6 +484,8 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER_WITH_LOCATION_AND_DATE:
                 return WeatherEntry.CONTENT_ITEM_TYPE;
+            case WEATHER_STATS:
+                return WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherEntry.CONTENT_TYPE;
             case WEATHER:
@@ -166,6 +494,12 @@ public class WeatherProvider extends ContentProvider {
                 return LocationEntry.CONTENT_TYPE;
             case LOCATION_ID:
                 return LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_SEARCH:
+                return LocationEntry.CONTENT_TYPE;
+            case DASHBOARD:
+                return DashboardEntry.CONTENT_TYPE;
+            case STATS:
+                return StatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Uri unknown: " + uri);
         }
@@ -174,19 +508,45 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = mMatcher.match(uri);
+        long start = System.nanoTime();
+        Uri rowUri = null;
+        try {
+            rowUri = insert(match, uri, contentValues);
+            return rowUri;
+        } finally {
+            recordCall(match, StatsEntry.OPERATION_INSERT, System.nanoTime() - start,
+                    rowUri != null ? 1 : 0, null, null);
+        }
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues contentValues) {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER: {
+                if (WeatherEntry.isUpsertUri(uri)) {
+                    Uri rowUri = upsertWeather(db, contentValues);
+                    if (rowUri != null) {
+                        return rowUri;
+                    }
+                    break;
+                }
                 long id = db.insert(WeatherEntry.TABLE_NAME, null, contentValues);
                 if (id > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(getWeatherChangeUri(db, contentValues));
                     return WeatherEntry.buildWeatherUri(id);
                 }
             }
             case LOCATION: {
+                if (LocationEntry.isUpsertUri(uri)) {
+                    long id = upsertLocation(contentValues);
+                    if (id > 0) {
+                        return LocationEntry.buildLocationUri(id);
+                    }
+                    break;
+                }
                 long id = db.insert(LocationEntry.TABLE_NAME, null, contentValues);
                 if (id > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
                     return LocationEntry.buildLocationUri(id);
                 }
             }
@@ -198,16 +558,36 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final int match = mMatcher.match(uri);
+        if (match == STATS) {
+            mStats.reset();
+            return 0;
+        }
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            count = delete(match, uri, selection, selectionArgs);
+            return count;
+        } finally {
+            recordRowCall(match, uri, StatsEntry.OPERATION_DELETE, System.nanoTime() - start,
+                    count, selection, selectionArgs);
+        }
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER: {
+                Set<Uri> changed = getAffectedLocationUris(db, selection, selectionArgs);
                 int count = db.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (count > 0) {
+                    notifyChanges(changed);
+                }
                 return count;
             }
             case LOCATION: {
                 int count = db.delete(LocationEntry.TABLE_NAME, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                clearLocationSettings();
+                notifyChange(uri);
                 return count;
             }
         }
@@ -217,16 +597,53 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final int match = mMatcher.match(uri);
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            count = update(match, uri, values, selection, selectionArgs);
+            return count;
+        } finally {
+            recordRowCall(match, uri, StatsEntry.OPERATION_UPDATE, System.nanoTime() - start,
+                    count, selection, selectionArgs);
+        }
+    }
+
+    private int update(int match, Uri uri, ContentValues values, String selection,
+                       String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER: {
+                Set<Uri> changed = getAffectedLocationUris(db, selection, selectionArgs);
                 int count = db.update(WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (count > 0) {
+                    if (values.containsKey(WeatherEntry.COLUMN_LOC_KEY)) {
+                        // Rows moved to another location.
+                        changed.add(getWeatherChangeUri(db, values));
+                    }
+                    notifyChanges(changed);
+                }
                 return count;
             }
             case LOCATION: {
                 int count = db.update(LocationEntry.TABLE_NAME, values, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+                clearLocationSettings();
+                notifyChange(uri);
+                return count;
+            }
+            case LOCATION_ID: {
+                int count = db.update(LocationEntry.TABLE_NAME, values, sLocationIdSelection,
+                        new String[]{Long.toString(ContentUris.parseId(uri))});
+                if (values.containsKey(LocationEntry.COLUMN_SETTING)) {
+                    clearLocationSettings();
+                }
+                if (values.size() == 1 && values.containsKey(LocationEntry.COLUMN_LAST_SYNC)
+                        && mBatch.get() == null) {
+                    // Recorded after every fetch, and only read from the location list by
+                    // the sync service. Nobody watches it, the other results don't have it.
+                    mQueryCache.invalidateRelated(uri);
+                    return count;
+                }
+                notifyChange(uri);
                 return count;
             }
         }
@@ -236,36 +653,596 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final int match = mMatcher.match(uri);
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            count = bulkInsert(match, uri, values);
+            return count;
+        } finally {
+            recordCall(match, StatsEntry.OPERATION_BULK_INSERT, System.nanoTime() - start,
+                    count, null, null);
+        }
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                if (WeatherEntry.isUpsertUri(uri)) {
+                    int[] counts = upsertWeather(values);
+                    return counts[UPSERT_INSERTED] + counts[UPSERT_UPDATED];
+                }
+                mOpenHelper.beginWrite(db);
                 int count = 0;
+                Set<Uri> changed = new LinkedHashSet<Uri>();
+                WeatherInserter inserter = new WeatherInserter(db);
                 try {
                     for (ContentValues value : values) {
-                        long id = db.insert(WeatherEntry.TABLE_NAME, null, value);
-                        if (id > 0)
+                        long id = inserter.insert(value);
+                        if (id > 0) {
                             count++;
+                            changed.add(getWeatherChangeUri(db, value));
+                        }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    inserter.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changed);
                 return count;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Apply the operations in a single write transaction. Change notifications of the
+     * operations are collected and sent once the transaction is committed, coalesced as
+     * described at {@link #coalesce}. If an operation fails, the whole batch is rolled back
+     * and nobody is notified.
+     * <p/>
+     * A refresh inserts its location on {@link LocationEntry#buildUpsertUri()} and every
+     * weather row on {@link WeatherEntry#buildUpsertUri()}, with a back-reference to the
+     * location's result for the location key.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        mBatch.set(batch);
+        ContentProviderResult[] results = null;
+        mOpenHelper.beginWrite(db);
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch.inserter != null) {
+                batch.inserter.close();
+            }
+            mBatch.remove();
+            db.endTransaction();
+            if (results == null) {
+                // Locations inserted by the batch are gone again, their ids may be reused.
+                clearLocationSettings();
+            }
+        }
+
+        notifyChanges(batch.changedUris);
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherEntry.METHOD_UPSERT.equals(method)) {
+            ArrayList<ContentValues> values = extras.getParcelableArrayList(WeatherEntry.EXTRA_VALUES);
+            int[] counts = upsertWeather(values.toArray(new ContentValues[values.size()]));
+            Bundle result = new Bundle();
+            result.putInt(WeatherEntry.EXTRA_INSERTED, counts[UPSERT_INSERTED]);
+            result.putInt(WeatherEntry.EXTRA_UPDATED, counts[UPSERT_UPDATED]);
+            result.putInt(WeatherEntry.EXTRA_UNCHANGED, counts[UPSERT_UNCHANGED]);
+            return result;
+        }
+        if (WeatherEntry.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherEntry.EXTRA_HITS, mQueryCache.getHits());
+            result.putInt(WeatherEntry.EXTRA_MISSES, mQueryCache.getMisses());
+            result.putInt(WeatherEntry.EXTRA_EVICTIONS, mQueryCache.getEvictions());
+            result.putInt(WeatherEntry.EXTRA_INVALIDATIONS, mQueryCache.getInvalidations());
+            result.putInt(WeatherEntry.EXTRA_CACHED_BYTES, mQueryCache.getBytes());
+            return result;
+        }
+        if (StatsEntry.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            mSlowQueryThresholdMillis = Long.parseLong(arg);
+            return null;
+        }
+        if (WeatherEntry.METHOD_PURGE.equals(method)) {
+            WeatherRetention.Report report = runRetention();
+            Bundle result = new Bundle();
+            result.putInt(WeatherEntry.EXTRA_DELETED, report.deletedRows);
+            result.putBoolean(WeatherEntry.EXTRA_VACUUMED, report.vacuumed);
+            result.putLong(WeatherEntry.EXTRA_ROWS_BEFORE, report.rowsBefore);
+            result.putLong(WeatherEntry.EXTRA_ROWS_AFTER, report.rowsAfter);
+            result.putLong(WeatherEntry.EXTRA_BYTES_BEFORE, report.bytesBefore);
+            result.putLong(WeatherEntry.EXTRA_BYTES_AFTER, report.bytesAfter);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Write only the weather rows that differ from the stored row for the same location and
+     * date. Unlike a plain insert, which replaces every row through the ON CONFLICT REPLACE
+     * constraint, unchanged days cost one indexed lookup and no write at all, and observers
+     * are only notified if at least one row was written.
+     *
+     * @return the number of rows inserted, updated and left unchanged
+     */
+    private int[] upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int[] counts = new int[3];
+        long[] id = new long[1];
+        Set<Uri> changed = new LinkedHashSet<Uri>();
+        mOpenHelper.beginWrite(db);
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (ContentValues value : values) {
+                int outcome = upsertWeatherRow(db, inserter, value, id);
+                if (outcome >= 0) {
+                    counts[outcome]++;
+                }
+                if (outcome == UPSERT_INSERTED || outcome == UPSERT_UPDATED) {
+                    changed.add(getWeatherChangeUri(db, value));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+
+        notifyChanges(changed);
+        return counts;
+    }
+
+    /**
+     * Insert, update or skip a single row, see {@link #upsertWeather}. Must be called inside
+     * a write transaction.
+     *
+     * @param id receives the id of the written or unchanged row
+     * @return UPSERT_INSERTED, UPSERT_UPDATED or UPSERT_UNCHANGED, or -1 if the insert failed
+     */
+    private int upsertWeatherRow(SQLiteDatabase db, WeatherInserter inserter,
+                                 ContentValues value, long[] id) {
+        Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        String date = value.getAsString(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Can't be matched against a stored row, the insert decides.
+            id[0] = inserter.insert(value);
+            return id[0] > 0 ? UPSERT_INSERTED : -1;
+        }
+
+        // ContentValues.keySet() needs Honeycomb, valueSet() works everywhere.
+        Set<Map.Entry<String, Object>> columns = value.valueSet();
+        String[] projection = new String[columns.size() + 1];
+        int column = 0;
+        for (Map.Entry<String, Object> entry : columns) {
+            projection[column++] = entry.getKey();
+        }
+        projection[column] = WeatherEntry._ID;
+        Cursor stored = db.query(WeatherEntry.TABLE_NAME,
+                projection,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), date},
+                null,
+                null,
+                null);
+        try {
+            if (!stored.moveToFirst()) {
+                id[0] = inserter.insert(value);
+                return id[0] > 0 ? UPSERT_INSERTED : -1;
+            }
+            id[0] = stored.getLong(projection.length - 1);
+            if (isSameRow(stored, value)) {
+                return UPSERT_UNCHANGED;
+            }
+            db.update(WeatherEntry.TABLE_NAME, value,
+                    WeatherEntry._ID + " = ?", new String[]{Long.toString(id[0])});
+            return UPSERT_UPDATED;
+        } finally {
+            stored.close();
+        }
+    }
+
+    /**
+     * Return the id of the location with the setting in the values, inserting it if there is
+     * none. The lookup and the insert share one write transaction, so concurrent callers for
+     * the same setting all get the same row. Observers are only notified of a new row, on its
+     * own uri.
+     *
+     * @return the row id, or -1 if the insert failed
+     */
+    private long upsertLocation(ContentValues values) {
+        String setting = values.getAsString(LocationEntry.COLUMN_SETTING);
+        if (setting == null) {
+            throw new IllegalArgumentException("Location upsert without " +
+                    LocationEntry.COLUMN_SETTING);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long id;
+        boolean inserted = false;
+        mOpenHelper.beginWrite(db);
+        try {
+            // Known locations come from the id cache, which every change of a location's
+            // setting or a deletion clears.
+            id = getLocationId(db, setting);
+            if (id < 0) {
+                id = db.insert(LocationEntry.TABLE_NAME, null, values);
+                inserted = id > 0;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (inserted) {
+            rememberLocation(id, setting);
+            notifyChange(LocationEntry.buildLocationUri(id));
+        }
+        return id;
+    }
+
+    /**
+     * Upsert a single weather row, inserted on {@link WeatherEntry#buildUpsertUri()}.
+     *
+     * @return the row uri with the outcome, or null if the insert failed
+     */
+    private Uri upsertWeather(SQLiteDatabase db, ContentValues value) {
+        Batch batch = mBatch.get();
+        // Inside a batch all rows share one compiled insert statement.
+        WeatherInserter inserter = batch != null ? batch.getInserter(db) : new WeatherInserter(db);
+        long[] id = new long[1];
+        int outcome;
+        mOpenHelper.beginWrite(db);
+        try {
+            outcome = upsertWeatherRow(db, inserter, value, id);
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch == null) {
+                inserter.close();
+            }
+            db.endTransaction();
+        }
+        switch (outcome) {
+            case UPSERT_INSERTED:
+                notifyChange(getWeatherChangeUri(db, value));
+                return WeatherEntry.buildUpsertResultUri(id[0], WeatherEntry.OUTCOME_INSERTED);
+            case UPSERT_UPDATED:
+                notifyChange(getWeatherChangeUri(db, value));
+                return WeatherEntry.buildUpsertResultUri(id[0], WeatherEntry.OUTCOME_UPDATED);
+            case UPSERT_UNCHANGED:
+                return WeatherEntry.buildUpsertResultUri(id[0], WeatherEntry.OUTCOME_UNCHANGED);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Record an update or delete, which is explained as the lookup of the rows it changes.
+     */
+    private void recordRowCall(int match, Uri uri, String operation, long nanos, int rows,
+                               String selection, String[] selectionArgs) {
+        String table;
+        switch (match) {
+            case WEATHER:
+                table = WeatherEntry.TABLE_NAME;
+                break;
+            case LOCATION_ID:
+                selection = sLocationIdSelection;
+                selectionArgs = new String[]{Long.toString(ContentUris.parseId(uri))};
+                // Fall through.
+            case LOCATION:
+                table = LocationEntry.TABLE_NAME;
+                break;
+            default:
+                recordCall(match, operation, nanos, rows, null, null);
+                return;
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, new String[]{"rowid"},
+                selection, null, null, null, null);
+        recordCall(match, operation, nanos, rows, sql, selectionArgs);
+    }
+
+    /**
+     * Add a call to the statistics and log it if it was slow.
+     *
+     * @param sql the statement to log the query plan of, null if there's none worth logging
+     */
+    private void recordCall(int match, String operation, long nanos, long rows, String sql,
+                            String[] selectionArgs) {
+        String route = sRoutes.get(match);
+        if (route == null) {
+            // Unknown uris fail, there's nothing to measure.
+            return;
+        }
+        long threshold = mSlowQueryThresholdMillis;
+        boolean slow = threshold >= 0 && nanos >= threshold * 1000000;
+        mStats.record(route, operation, nanos, rows, slow);
+        if (slow) {
+            Log.w(LOG_TAG, String.format("Slow %s on %s: %dms, %d rows%s", operation, route,
+                    nanos / 1000000, rows, sql != null ? "\n" + sql + "\n" +
+                            explain(sql, selectionArgs) : ""));
+        }
+    }
+
+    /**
+     * @return the EXPLAIN QUERY PLAN of the statement, a step per line
+     */
+    private String explain(String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = mOpenHelper.getReadableDatabase()
+                    .rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detail));
+            }
+        } catch (SQLException e) {
+            // The plan is a diagnostic, it mustn't fail the call.
+            return "No query plan: " + e.getMessage();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return plan.toString();
+    }
+
+    private void notifyChange(Uri uri) {
+        notifyChanges(Collections.singleton(uri));
+    }
+
+    /**
+     * Notify observers of the coalesced uris, or remember them until the batch on this
+     * thread is committed.
+     */
+    private void notifyChanges(Set<Uri> uris) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.changedUris.addAll(uris);
+            return;
+        }
+        for (Uri uri : coalesce(uris)) {
+            // Everything is committed by now, a result cached from here on is current.
+            mQueryCache.invalidate(uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * The uri observers of a written weather row watch: the row's location and date, which
+     * the forecast list of the location is notified of as well. The whole weather uri only
+     * if the location isn't known.
+     */
+    private Uri getWeatherChangeUri(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        String setting = locationId != null ? getLocationSetting(db, locationId) : null;
+        if (setting == null) {
+            return WeatherEntry.CONTENT_URI;
+        }
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        return date != null ? WeatherEntry.buildWeatherLocationWithDate(setting, date)
+                : WeatherEntry.buildWeatherLocation(setting);
+    }
+
+    /**
+     * @return the uris of the locations that have weather rows matching the selection
+     */
+    private Set<Uri> getAffectedLocationUris(SQLiteDatabase db, String selection,
+                                             String[] selectionArgs) {
+        Set<Uri> uris = new LinkedHashSet<Uri>();
+        Cursor cursor = db.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String setting = getLocationSetting(db, cursor.getLong(0));
+                uris.add(setting != null ? WeatherEntry.buildWeatherLocation(setting)
+                        : WeatherEntry.CONTENT_URI);
+            }
+        } finally {
+            cursor.close();
+        }
+        return uris;
+    }
+
+    /**
+     * @return the setting of the location, or null if there is no such location
+     */
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        synchronized (mLocationSettings) {
+            String setting = mLocationSettings.get(locationId);
+            if (setting != null) {
+                return setting;
+            }
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_SETTING}, sLocationIdSelection,
+                new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            String setting = cursor.getString(0);
+            rememberLocation(locationId, setting);
+            return setting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the row id of the location with the setting, or -1 if there is no such location
+     */
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        synchronized (mLocationSettings) {
+            Long id = mLocationIds.get(locationSetting);
+            if (id != null) {
+                return id;
+            }
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_SETTING + " = ?", new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            long id = cursor.getLong(0);
+            rememberLocation(id, locationSetting);
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void rememberLocation(long locationId, String locationSetting) {
+        synchronized (mLocationSettings) {
+            mLocationSettings.put(locationId, locationSetting);
+            mLocationIds.put(locationSetting, locationId);
+        }
+    }
+
+    private void clearLocationSettings() {
+        synchronized (mLocationSettings) {
+            mLocationSettings.clear();
+            mLocationIds.clear();
+        }
+    }
+
+    /**
+     * Reduce the changed uris to the fewest notifications that reach every observer of them.
+     * Observers of a uri are notified of changes to its parents as well, so a uri is dropped
+     * if its parent changed too. Several changed dates of one location become a single
+     * notification of the location, the forecast list would otherwise re-query once per day.
+     */
+    static Set<Uri> coalesce(Set<Uri> uris) {
+        Map<Uri, Integer> datesPerLocation = new HashMap<Uri, Integer>();
+        for (Uri uri : uris) {
+            Uri location = getWeatherLocationOfDate(uri);
+            if (location != null) {
+                Integer dates = datesPerLocation.get(location);
+                datesPerLocation.put(location, dates == null ? 1 : dates + 1);
+            }
+        }
+        Set<Uri> reduced = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            Uri location = getWeatherLocationOfDate(uri);
+            reduced.add(location != null && datesPerLocation.get(location) > 1 ? location : uri);
+        }
+        Set<Uri> coalesced = new LinkedHashSet<Uri>();
+        for (Uri uri : reduced) {
+            if (!hasChangedParent(reduced, uri)) {
+                coalesced.add(uri);
+            }
+        }
+        return coalesced;
+    }
+
+    /**
+     * @return weather/[location] for a weather/[location]/[date] uri, otherwise null
+     */
+    private static Uri getWeatherLocationOfDate(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 3 || !segments.get(0).equals(WeatherContract.PATH_WEATHER)) {
+            return null;
+        }
+        return WeatherEntry.buildWeatherLocation(segments.get(1));
+    }
+
+    private static boolean hasChangedParent(Set<Uri> changedUris, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri other : changedUris) {
+            List<String> otherSegments = other.getPathSegments();
+            if (otherSegments.size() < segments.size()
+                    && segments.subList(0, otherSegments.size()).equals(otherSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Purge the forecast days before the retention horizon. Must not be called inside a
+     * transaction, VACUUM can't run in one.
+     */
+    private WeatherRetention.Report runRetention() {
+        WeatherRetention.Report report;
+        synchronized (mRetention) {
+            report = mRetention.run(WeatherContract.getTodayEpochDay());
+        }
+        // No notification: the purged days lie before the horizon, further in the past than
+        // anything the forecast list or detail view queries. Cached results may hold them.
+        if (report.deletedRows > 0) {
+            mQueryCache.clear();
+        }
+        return report;
+    }
+
+    /**
+     * Compare the stored row with the new values column by column, using the type of the new
+     * value so REAL columns are compared as doubles rather than as formatted text.
+     */
+    private static boolean isSameRow(Cursor stored, ContentValues value) {
+        for (Map.Entry<String, Object> entry : value.valueSet()) {
+            int index = stored.getColumnIndex(entry.getKey());
+            Object expected = entry.getValue();
+            if (expected == null) {
+                if (!stored.isNull(index)) {
+                    return false;
+                }
+            } else if (stored.isNull(index)) {
+                return false;
+            } else if (expected instanceof Double || expected instanceof Float) {
+                if (stored.getDouble(index) != ((Number) expected).doubleValue()) {
+                    return false;
+                }
+            } else if (expected instanceof Number) {
+                if (stored.getLong(index) != ((Number) expected).longValue()) {
+                    return false;
+                }
+            } else if (!expected.toString().equals(stored.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
-        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER, WEATHER);
-        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
-        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_WEATHER + "/*/*", WEATHER_WITH_LOCATION_AND_DATE);
-        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION, LOCATION);
-        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_LOCATION + "/#", LOCATION_ID);
+        addRoute(matcher, WeatherContract.PATH_WEATHER, WEATHER);
+        addRoute(matcher, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
+        addRoute(matcher, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
+        addRoute(matcher, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        addRoute(matcher, WeatherContract.PATH_LOCATION, LOCATION);
+        addRoute(matcher, WeatherContract.PATH_LOCATION + "/#", LOCATION_ID);
+        addRoute(matcher, WeatherContract.PATH_LOCATION + "/" + LocationEntry.PATH_SEARCH,
+                LOCATION_SEARCH);
+        addRoute(matcher, WeatherContract.PATH_LOCATION + "/" + LocationEntry.PATH_SEARCH + "/*",
+                LOCATION_SEARCH);
+        addRoute(matcher, WeatherContract.PATH_DASHBOARD, DASHBOARD);
+        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, WeatherContract.PATH_STATS, STATS);
 
         return matcher;
     }
+
+    private static void addRoute(UriMatcher matcher, String path, int code) {
+        matcher.addURI(WeatherContract.CONTENT_AUTHORITY, path, code);
+        sRoutes.put(code, path);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+package com.example.wiehlem.sunshine.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.wiehlem.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Deletes forecast days that lie further in the past than the retention horizon, and
+ * compacts the database file once enough of it is free pages.
+ * <p/>
+ * Only today and later are ever shown, but every refresh adds new days, so without this the
+ * weather table and its index grow for as long as the app is installed. Rows are deleted in
+ * small batches, each in a transaction of its own, so a purge never holds the write lock for
+ * long. Deleted pages are only reused by SQLite, the file shrinks when it is vacuumed.
+ */
+class WeatherRetention {
+
+    private static final String LOG_TAG = WeatherRetention.class.getSimpleName();
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+    // Share of free pages in the file above which it is vacuumed.
+    static final double DEFAULT_VACUUM_FREE_RATIO = 0.25;
+
+    private static final String SQL_DELETE_BATCH = "DELETE FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry._ID + " IN (SELECT " + WeatherEntry._ID + " FROM " +
+            WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " < ? LIMIT ?)";
+
+    /**
+     * What a retention run did, with the size of the weather table and the database file
+     * before and after.
+     */
+    static class Report {
+        int deletedRows;
+        boolean vacuumed;
+        long rowsBefore;
+        long rowsAfter;
+        long bytesBefore;
+        long bytesAfter;
+        long freeBytesBefore;
+        long freeBytesAfter;
+
+        @Override
+        public String toString() {
+            return "deleted " + deletedRows + " rows (" + rowsBefore + " -> " + rowsAfter +
+                    "), database " + bytesBefore + " -> " + bytesAfter + " bytes, free " +
+                    freeBytesBefore + " -> " + freeBytesAfter + " bytes" +
+                    (vacuumed ? ", vacuumed" : "");
+        }
+    }
+
+    private final WeatherDbHelper mOpenHelper;
+    private final int mRetentionDays;
+    private int mBatchSize = DEFAULT_BATCH_SIZE;
+    private double mVacuumFreeRatio = DEFAULT_VACUUM_FREE_RATIO;
+
+    /**
+     * @param retentionDays how many days before today are kept
+     */
+    WeatherRetention(WeatherDbHelper openHelper, int retentionDays) {
+        mOpenHelper = openHelper;
+        mRetentionDays = retentionDays;
+    }
+
+    void setBatchSize(int batchSize) {
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    void setVacuumFreeRatio(double vacuumFreeRatio) {
+        mVacuumFreeRatio = vacuumFreeRatio;
+    }
+
+    /**
+     * Purge the days before the horizon and vacuum if enough of the file is free afterwards.
+     * Must not be called inside a transaction, VACUUM can't run in one.
+     */
+    Report run(long todayEpochDay) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Report report = new Report();
+        report.rowsBefore = DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME);
+        report.bytesBefore = getDatabaseBytes(db);
+        report.freeBytesBefore = getFreeBytes(db);
+
+        report.deletedRows = purge(db, todayEpochDay - mRetentionDays);
+        report.vacuumed = compactIfNeeded(db);
+
+        report.rowsAfter = DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME);
+        report.bytesAfter = getDatabaseBytes(db);
+        report.freeBytesAfter = getFreeBytes(db);
+        Log.i(LOG_TAG, "Retention: " + report);
+        return report;
+    }
+
+    /**
+     * @return the number of rows deleted for dates before the cutoff
+     */
+    int purge(SQLiteDatabase db, long cutoffEpochDay) {
+        String[] args = {Long.toString(cutoffEpochDay), Integer.toString(mBatchSize)};
+        int deleted = 0;
+        while (true) {
+            int batch;
+            mOpenHelper.beginWrite(db);
+            try {
+                db.execSQL(SQL_DELETE_BATCH, args);
+                batch = (int) DatabaseUtils.longForQuery(db, "SELECT changes()", null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            deleted += batch;
+            if (batch < mBatchSize) {
+                return deleted;
+            }
+        }
+    }
+
+    /**
+     * @return whether the database was vacuumed
+     */
+    boolean compactIfNeeded(SQLiteDatabase db) {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (pages == 0 || (double) freePages / pages < mVacuumFreeRatio) {
+            return false;
+        }
+        db.execSQL("VACUUM");
+        return true;
+    }
+
+    static long getDatabaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) * db.getPageSize();
+    }
+
+    static long getFreeBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) * db.getPageSize();
+    }
+}
@@ -32,6 +32,7 @@ public class main extends ActionBarActivity {
             getSupportFragmentManager().beginTransaction()
                     .add(R.id.container, new ForecastFragment())
                     .commit();
+            WeatherSyncService.schedule(this);
         }
         Log.v(LOG_TAG, "onCreate");
     }
@@ -82,6 +83,9 @@ public class main extends ActionBarActivity {
         if (id == R.id.action_settings) {
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
+        } else if (id == R.id.action_dashboard) {
+            startActivity(new Intent(this, DashboardActivity.class));
+            return true;
         } else if (id == R.id.action_show_on_map) {
             SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
             String location = preferences.getString(getString(R.string.pref_location_key), getString(R.string.pref_location_default));